@@ -0,0 +1,32 @@
+package org.devzendo.dxclusterwatch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks, writing their results as JSON to jmh-result.json,
+ * so that they can be compared between builds. Takes JMH's usual options,
+ * e.g. a regexp to run some of the benchmarks, or -rf/-rff to change the
+ * results' format or file.
+ *
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public class RunBenchmarks {
+	private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	public static void main(final String[] args) throws Exception {
+		final List<String> options = Arrays.asList(args);
+		final List<String> jmhArgs = new ArrayList<>();
+		if (!options.contains("-rf")) {
+			jmhArgs.add("-rf");
+			jmhArgs.add("json");
+		}
+		if (!options.contains("-rff")) {
+			jmhArgs.add("-rff");
+			jmhArgs.add(DEFAULT_RESULT_FILE);
+		}
+		jmhArgs.addAll(options);
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+	}
+}
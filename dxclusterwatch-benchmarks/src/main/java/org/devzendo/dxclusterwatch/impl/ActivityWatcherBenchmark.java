@@ -0,0 +1,184 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.commoncode.time.Sleeper;
+import org.devzendo.dxclusterwatch.cmd.ActivityWatcher.MarkPublished;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.impl.DefaultActivityWatcher.Stuff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DefaultActivityWatcher's seen, latestTweetableActivity and purge, with a
+ * watcher holding entries spots across ten callsigns; and packing as many of
+ * one callsign's entries as fit into a tweet, as that callsign's untweeted
+ * entries grow.
+ *
+ * seen, latestTweetableActivity and purge change the watcher, so they're
+ * timed as single shots of a batch of calls, each batch on a freshly filled
+ * watcher; filling it isn't measured, and the score is the time for the
+ * whole batch. Packing leaves its entries as it found them, so is timed on
+ * average.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ActivityWatcherBenchmark {
+	private static final MarkPublished DO_NOTHING = new MarkPublished() {
+		@Override
+		public void markPublished(final Collection<ClusterRecord> records) {
+			// do nothing
+		}};
+
+	// Sleeps are this much faster, so expiring entries doesn't take 30 minutes
+	private static final int TIME_MULTIPLIER = 1000000;
+	private static final long EXPIRY_MS = 31 * 60 * 1000L;
+
+	// New spots seen per batch; the watcher grows by this many over a batch.
+	private static final int SEEN_BATCH = 100;
+	// Tweets formed per batch; few enough that the smallest watcher still has
+	// untweeted entries at the end of one.
+	private static final int TWEET_BATCH = 5;
+	private static final int BATCHES = 20;
+
+	@State(Scope.Thread)
+	public static class Watching {
+		@Param({ "100", "10000" })
+		public int entries;
+
+		ClusterRecord[] spots;
+		// spots the watcher hasn't seen, one for each seen in a batch
+		ClusterRecord[] newSpots;
+		int nextNewSpot;
+		DefaultActivityWatcher watcher;
+
+		@Setup(Level.Trial)
+		public void createSpots() {
+			spots = spots(entries);
+			newSpots = new ClusterRecord[SEEN_BATCH];
+			for (int i = 0; i < SEEN_BATCH; i++) {
+				newSpots[i] = Benchmarks.spot(entries + 1 + i);
+			}
+		}
+
+		@Setup(Level.Iteration)
+		public void fill() {
+			watcher = filledWatcher(new Sleeper(TIME_MULTIPLIER), spots);
+			nextNewSpot = 0;
+		}
+	}
+
+	// with every entry tweeted, and expired
+	@State(Scope.Thread)
+	public static class Purging {
+		@Param({ "100", "10000" })
+		public int entries;
+
+		ClusterRecord[] spots;
+		DefaultActivityWatcher watcher;
+
+		@Setup(Level.Trial)
+		public void createSpots() {
+			spots = spots(entries);
+		}
+
+		@Setup(Level.Iteration)
+		public void fillAndExpire() {
+			final Sleeper sleeper = new Sleeper(TIME_MULTIPLIER);
+			watcher = filledWatcher(sleeper, spots);
+			while (!watcher.latestTweetableActivity().isEmpty()) {
+				// tweet them all
+			}
+			sleeper.sleep(EXPIRY_MS);
+		}
+	}
+
+	// one callsign's untweeted entries, on successive frequencies
+	@State(Scope.Thread)
+	public static class Packing {
+		@Param({ "100", "10000", "100000" })
+		public int entriesPerCallsign;
+
+		List<Stuff> stuffs;
+		final List<Stuff> marked = new ArrayList<>();
+
+		@Setup(Level.Trial)
+		public void createStuffs() {
+			stuffs = new ArrayList<>(entriesPerCallsign);
+			for (int i = 0; i < entriesPerCallsign; i++) {
+				stuffs.add(new Stuff(null, new Timestamp(i * 60000L), 1000 + i, 0L, DO_NOTHING));
+			}
+		}
+	}
+
+	private static ClusterRecord[] spots(final int entries) {
+		final ClusterRecord[] spots = new ClusterRecord[entries];
+		for (int i = 0; i < entries; i++) {
+			spots[i] = Benchmarks.spot(i + 1);
+		}
+		return spots;
+	}
+
+	private static DefaultActivityWatcher filledWatcher(final Sleeper sleeper, final ClusterRecord[] spots) {
+		final DefaultActivityWatcher watcher = new DefaultActivityWatcher(sleeper);
+		for (final ClusterRecord spot : spots) {
+			watcher.seen(spot, DO_NOTHING);
+		}
+		return watcher;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = BATCHES, batchSize = SEEN_BATCH)
+	@Measurement(iterations = BATCHES, batchSize = SEEN_BATCH)
+	public boolean seen(final Watching watching) {
+		return watching.watcher.seen(watching.newSpots[watching.nextNewSpot++], DO_NOTHING);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = BATCHES, batchSize = TWEET_BATCH)
+	@Measurement(iterations = BATCHES, batchSize = TWEET_BATCH)
+	public String latestTweetableActivity(final Watching watching) {
+		return watching.watcher.latestTweetableActivity();
+	}
+
+	// Those packed are marked tweeted; they're unmarked again, so every
+	// invocation packs the same entries.
+	@Benchmark
+	public String joinWhileStillFits(final Packing packing) {
+		final String joined = DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(140, packing.stuffs, packing.marked);
+		for (final Stuff stuff : packing.marked) {
+			stuff.tweeted = false;
+		}
+		packing.marked.clear();
+		return joined;
+	}
+
+	// the first call of a batch purges every entry, so a batch is one call
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = BATCHES)
+	@Measurement(iterations = BATCHES)
+	public int purge(final Purging purging) {
+		purging.watcher.purge();
+		return purging.watcher.numEntries();
+	}
+}
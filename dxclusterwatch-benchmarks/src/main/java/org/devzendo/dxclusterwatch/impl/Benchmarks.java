@@ -0,0 +1,71 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Timestamp;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.devzendo.commoncode.resource.ResourceLoader;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+
+/**
+ * What the benchmarks share: the sample feed, generated spots, and scratch
+ * directories.
+ */
+final class Benchmarks {
+	static final String SAMPLE_FEED = "pretty_printed_dxcluster.json";
+
+	private Benchmarks() {
+	}
+
+	static byte[] sampleFeed() throws IOException {
+		final InputStream in = ResourceLoader.getResourceInputStream(SAMPLE_FEED);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	static ClusterRecord[] sampleRecords() throws IOException {
+		return new ObjectMapper().readValue(sampleFeed(), ClusterRecord[].class);
+	}
+
+	// a spot a minute, on one of ten callsigns
+	static ClusterRecord spot(final int nr) {
+		return ClusterRecord.dbRecord(nr, "GB" + (nr % 10) + "IMD", "M0CUV", new Timestamp(nr * 60000L), Integer.toString(1000 + nr), "Spot " + nr);
+	}
+
+	static File createTempDirectory() throws IOException {
+		return Files.createTempDirectory("dxclusterwatch-benchmark").toFile();
+	}
+
+	static void delete(final File root) throws IOException {
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
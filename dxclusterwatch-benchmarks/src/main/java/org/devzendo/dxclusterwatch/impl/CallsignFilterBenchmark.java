@@ -0,0 +1,63 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DXClusterSitePoller.filterCallsigns over the sample feed, with a matcher
+ * already built for the configured callsigns, as the poller keeps one, and
+ * from the set of callsigns, building the matcher each time.
+ *
+ * One of the callsigns is IMD, which the sample's IMD stations match; the
+ * rest match nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallsignFilterBenchmark {
+	@Param({ "1", "10", "100" })
+	public int callsigns;
+
+	private ClusterRecord[] records;
+	private Set<String> callsignSet;
+	private CallsignMatcher callsignMatcher;
+
+	@Setup
+	public void setup() throws IOException {
+		records = Benchmarks.sampleRecords();
+		callsignSet = new HashSet<>();
+		callsignSet.add("IMD");
+		for (int i = 1; i < callsigns; i++) {
+			callsignSet.add("Q" + i + "ZZ");
+		}
+		callsignMatcher = new CallsignMatcher(callsignSet);
+	}
+
+	@Benchmark
+	public ClusterRecord[] filterWithMatcher() {
+		return DXClusterSitePoller.filterCallsigns(callsignMatcher, records);
+	}
+
+	@Benchmark
+	public ClusterRecord[] filterWithCallsignSet() {
+		return DXClusterSitePoller.filterCallsigns(callsignSet, records);
+	}
+}
@@ -0,0 +1,66 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deserialising the sample feed, pretty_printed_dxcluster.json: bound
+ * wholesale to ClusterRecord[], and streamed by the ClusterRecordStreamReader
+ * the poller uses, keeping every spot, or only the IMD stations' spots.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread) // the stream reader's buffers are not shared
+public class FeedParsingBenchmark {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ClusterRecordStreamReader streamReader = new ClusterRecordStreamReader();
+	private final CallsignMatcher everything = new CallsignMatcher(Collections.singleton("ALL"));
+	private final CallsignMatcher imdStations = new CallsignMatcher(Collections.singleton("IMD"));
+	private byte[] feed;
+
+	@Setup
+	public void setup() throws IOException {
+		feed = Benchmarks.sampleFeed();
+	}
+
+	@Benchmark
+	public ClusterRecord[] bindWholeFeed() throws IOException {
+		return objectMapper.readValue(feed, ClusterRecord[].class);
+	}
+
+	@Benchmark
+	public List<ClusterRecord> streamAllSpots() throws IOException {
+		return stream(everything);
+	}
+
+	@Benchmark
+	public List<ClusterRecord> streamMatchingSpots() throws IOException {
+		return stream(imdStations);
+	}
+
+	private List<ClusterRecord> stream(final CallsignMatcher callsignMatcher) throws IOException {
+		final List<ClusterRecord> matchedRecords = new ArrayList<>();
+		streamReader.read(new ByteArrayInputStream(feed), callsignMatcher, ClusterRecordStreamReader.NO_NR, matchedRecords);
+		return matchedRecords;
+	}
+}
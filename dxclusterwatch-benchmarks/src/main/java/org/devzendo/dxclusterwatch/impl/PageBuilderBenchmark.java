@@ -0,0 +1,105 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BitbucketPagesPageBuilder.rebuildPage with a listing of listingEntries
+ * spots, when no new spots have arrived, and when one has. The page is
+ * written to a scratch site repo; it isn't published.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageBuilderBenchmark {
+	private static final String LINE_SEP = System.getProperty("line.separator");
+	private static final Publisher NO_PUBLISHER = new Publisher() {
+		@Override
+		public void publish(final Set<String> fileNames) {
+			// not measured
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}};
+
+	@Param({ "20", "1000" })
+	public int listingEntries;
+
+	private File root;
+	private SpotRingBuffer recentSpots;
+	private BitbucketPagesPageBuilder pageBuilder;
+	private int nextNr;
+
+	@Setup
+	public void setup() throws IOException {
+		root = Benchmarks.createTempDirectory();
+		final File siteRepo = new File(root, "site.repo");
+		siteRepo.mkdir();
+		final File properties = new File(root, "benchmark.properties");
+		final FileWriter fileWriter = new FileWriter(properties);
+		try {
+			fileWriter.write("callsigns=IMD" + LINE_SEP);
+			fileWriter.write("pollMinutes=1" + LINE_SEP);
+			fileWriter.write("tweetSeconds=30" + LINE_SEP);
+			fileWriter.write("siteRepoPath=" + siteRepo.getAbsolutePath() + LINE_SEP);
+			fileWriter.write("publisher=directory" + LINE_SEP);
+			fileWriter.write("publishDirectory=" + siteRepo.getAbsolutePath() + LINE_SEP);
+			fileWriter.write("consumerKey=abc" + LINE_SEP);
+			fileWriter.write("consumerSecret=def" + LINE_SEP);
+			fileWriter.write("accessToken=123abc" + LINE_SEP);
+			fileWriter.write("accessSecret=def987" + LINE_SEP);
+			fileWriter.write("maxListingEntries=" + listingEntries + LINE_SEP);
+			fileWriter.write("enableFeedReading=true" + LINE_SEP);
+			fileWriter.write("enablePageUpdating=true" + LINE_SEP);
+			fileWriter.write("enableTweeting=false" + LINE_SEP);
+			fileWriter.write("serverURI=http://localhost:5645" + LINE_SEP);
+		} finally {
+			fileWriter.close();
+		}
+		recentSpots = new SpotRingBuffer(listingEntries);
+		for (nextNr = 1; nextNr <= listingEntries; nextNr++) {
+			recentSpots.addAll(Collections.singletonList(Benchmarks.spot(nextNr)));
+		}
+		pageBuilder = new BitbucketPagesPageBuilder(new PropertiesConfig(properties), recentSpots, NO_PUBLISHER);
+		pageBuilder.rebuildPage(listingEntries, listingEntries);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Benchmarks.delete(root);
+	}
+
+	@Benchmark
+	public void rebuildWithNoNewSpots() {
+		pageBuilder.rebuildPage(listingEntries, 0);
+	}
+
+	@Benchmark
+	public void rebuildWithANewSpot() {
+		recentSpots.addAll(Collections.singletonList(Benchmarks.spot(nextNr++)));
+		pageBuilder.rebuildPage(listingEntries, 1);
+	}
+}
@@ -0,0 +1,149 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * H2Persister's stores and queries, on a database of tableSize spots, all but
+ * the newest 100 of them tweeted, as they are in a long-running database, to
+ * see how they slow down as the Spots table grows.
+ *
+ * A poll mostly re-reads spots that are already stored, so persisting the
+ * newest 100 again is measured, as well as persisting a few new ones. Each
+ * benchmark has a database of its own; persisting new spots grows it.
+ *
+ * Unless indexed, the database is created with the Spots table as first
+ * released and its schema version already current, so the migrations that
+ * index it never run; comparing the two shows what the indexes are worth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersisterBenchmark {
+	private static final int BATCH = 10000;
+	private static final int UNTWEETED = 100;
+	private static final int NEW_PER_POLL = 5;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int tableSize;
+
+	@Param({ "true", "false" })
+	public boolean indexed;
+
+	private File root;
+	private H2Persister persister;
+	private ClusterRecord[] newestRecords;
+	private Timestamp newest;
+	private Timestamp hourBeforeNewest;
+	private int nextNr;
+
+	@Setup
+	public void setup() throws IOException, SQLException {
+		root = Benchmarks.createTempDirectory();
+		if (!indexed) {
+			createWithoutMigrations();
+		}
+		persister = new H2Persister(root, 20);
+		final List<ClusterRecord> tweeted = new ArrayList<>();
+		for (int from = 1; from <= tableSize; from += BATCH) {
+			final ClusterRecord[] records = new ClusterRecord[Math.min(BATCH, tableSize - from + 1)];
+			for (int i = 0; i < records.length; i++) {
+				records[i] = Benchmarks.spot(from + i);
+				if (from + i <= tableSize - UNTWEETED) {
+					tweeted.add(records[i]);
+				}
+			}
+			persister.persistRecords(records);
+		}
+		persister.markTweeted(tweeted);
+		newestRecords = new ClusterRecord[UNTWEETED];
+		for (int i = 0; i < UNTWEETED; i++) {
+			newestRecords[i] = Benchmarks.spot(tableSize - i);
+		}
+		nextNr = tableSize + 1;
+		newest = newestRecords[0].getTimeAsTimestamp();
+		hourBeforeNewest = new Timestamp(newest.getTime() - 3600000L);
+	}
+
+	private void createWithoutMigrations() throws SQLException {
+		final Connection connection = DriverManager.getConnection("jdbc:h2:" + new File(root, "dxclusterwatch").getAbsolutePath(), "sa", "");
+		try {
+			final Statement statement = connection.createStatement();
+			statement.execute(H2Persister.CREATE_SPOTS_SQL);
+			statement.execute("CREATE TABLE SchemaVersion(version INT)");
+			statement.execute("INSERT INTO SchemaVersion (version) VALUES (" + H2Persister.SCHEMA_VERSION + ")");
+		} finally {
+			connection.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		persister.close();
+		Benchmarks.delete(root);
+	}
+
+	@Benchmark
+	public List<ClusterRecord> persistKnownRecords() {
+		return persister.persistRecords(newestRecords);
+	}
+
+	@Benchmark
+	public List<ClusterRecord> persistNewRecords() {
+		final ClusterRecord[] records = new ClusterRecord[NEW_PER_POLL];
+		for (int i = 0; i < NEW_PER_POLL; i++) {
+			records[i] = Benchmarks.spot(nextNr++);
+		}
+		return persister.persistRecords(records);
+	}
+
+	@Benchmark
+	public List<ClusterRecord> getUntweetedRecords() {
+		return persister.getUntweetedRecords();
+	}
+
+	@Benchmark
+	public ClusterRecord getNextRecordToTweet() {
+		return persister.getNextRecordToTweet();
+	}
+
+	@Benchmark
+	public List<ClusterRecord> getRecords() {
+		return persister.getRecords();
+	}
+
+	@Benchmark
+	public List<ClusterRecord> getRecordsBetweenAnHour() {
+		return persister.getRecordsBetween(hourBeforeNewest, newest);
+	}
+
+	@Benchmark
+	public Timestamp getEarliestTimeRecord() {
+		return persister.getEarliestTimeRecord();
+	}
+}
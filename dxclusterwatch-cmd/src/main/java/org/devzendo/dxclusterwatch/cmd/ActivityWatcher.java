@@ -1,13 +1,16 @@
 package org.devzendo.dxclusterwatch.cmd;
 
+import java.util.Collection;
+
 public interface ActivityWatcher {
 	public interface MarkPublished {
-		void markPublished(ClusterRecord record);
+		void markPublished(Collection<ClusterRecord> records);
 	}
 	
 	// record a cluster record. return true if it's a new one (and will be formed into a tweet and
 	// marked as published when it fits), false if already seen (and will be marked as published
-	// immediately)
+	// at the next latestTweetableActivity()). Records are marked in batches, with one call per
+	// MarkPublished in each latestTweetableActivity().
 	boolean seen(ClusterRecord record, MarkPublished markPublished);
 
 	// empty string if nothing to say, repeat last string if nothing has changed. 
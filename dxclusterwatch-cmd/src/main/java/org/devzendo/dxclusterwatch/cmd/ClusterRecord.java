@@ -191,7 +191,7 @@ public class ClusterRecord {
 	public void setTime(final String time) {
 		this.time = time;
 	}
-	private void setTimeAsTimestamp(final Timestamp when) {
+	void setTimeAsTimestamp(final Timestamp when) {
 		this.timeAsTimeStamp = when;
 	}
 	public Timestamp getTimeAsTimestamp() {
@@ -18,6 +18,7 @@ public interface Config {
 
 	String getAccessSecret();
 
+	// null unless the publisher is HG
 	File getHgExecutablePath();
 
 	File getSiteRepoPath();
@@ -36,4 +37,45 @@ public interface Config {
 
 	boolean isTweetingEnabled();
 
+	// how long to wait for a connection to the DXCluster server
+	int getConnectTimeoutSeconds();
+
+	// how long to wait for data from an established connection to the DXCluster server
+	int getReadTimeoutSeconds();
+
+	// how many idle connections to keep alive for reuse; read at startup
+	int getMaxConnections();
+
+	// how the page is published; read at startup
+	PublisherType getPublisher();
+
+	// the directory a DIRECTORY publisher copies into; null for other publishers
+	File getPublishDirectory();
+
+	// publishes requested within this many seconds of the last are coalesced into one
+	int getPublishWindowSeconds();
+
+	// the page is updated as soon as new records arrive, but at least this
+	// long after its last update
+	int getPageMinIntervalSeconds();
+
+	// ... but new records are published no later than this long after they
+	// arrived, including the publish window
+	int getPageMaxStalenessSeconds();
+
+	// records older than this many days are pruned; 0 keeps them regardless of age
+	int getRetentionDays();
+
+	// only this many of the newest records are kept; 0 keeps them regardless of number
+	int getRetentionMaxRecords();
+
+	// where pruned records are archived, or null if they're just deleted
+	File getArchiveDirectory();
+
+	// after pruning, the database is compacted at most this often; 0 never compacts
+	int getCompactIntervalHours();
+
+	// how many database connections to pool; with 1, reads wait for writes; read at startup
+	int getDatabaseConnections();
+
 }
\ No newline at end of file
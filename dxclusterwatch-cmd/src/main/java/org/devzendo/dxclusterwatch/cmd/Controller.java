@@ -1,5 +1,7 @@
 package org.devzendo.dxclusterwatch.cmd;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -7,6 +9,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.devzendo.commoncode.time.Sleeper;
 import org.devzendo.dxclusterwatch.cmd.ActivityWatcher.MarkPublished;
 import org.devzendo.dxclusterwatch.util.Signals;
+import org.devzendo.dxclusterwatch.util.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +19,8 @@ import sun.misc.SignalHandler;
 public class Controller {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Controller.class);
 	
+	private static final long MIN_BACKOFF_SECONDS = 60;
+
 	private final AtomicBoolean running = new AtomicBoolean(true);
 	private final CountDownLatch stopEnded = new CountDownLatch(1);
 	private final Config config;
@@ -28,6 +33,46 @@ public class Controller {
 
 	private final SignalHandler oldIntHandler;
 
+	// Each stage has its own thread, so that a slow page publish or tweet
+	// doesn't hold up polling. The queues are bounded: a stage that can't keep
+	// up blocks those feeding it.
+	private final Stage pollStage = new Stage("poll", 1);
+	private final Stage persistStage = new Stage("persist", 1);
+	private final Stage pageStage = new Stage("page", 2);
+	private final Stage tweetStage = new Stage("tweet", 4);
+	private final List<Stage> stages = Arrays.asList(pollStage, persistStage, pageStage, tweetStage);
+
+	// Deadlines, in Sleeper milliseconds, are set by the stages, and read by the scheduling loop.
+	private volatile long nextPollMillis;
+	private volatile long nextTweetMillis;
+	private final PageDebouncer pageDebouncer = new PageDebouncer();
+	// The loop sleeps no longer than this, so that it sees deadlines set while
+	// it sleeps. Poll and tweet deadlines are at least this far ahead of when
+	// they're set; a page update due sooner is submitted by the persist stage
+	// if it's due at once, and otherwise may be made up to this late.
+	private volatile long shortestIntervalMillis = 1000L;
+	private volatile long lastPollSeconds = MIN_BACKOFF_SECONDS;
+	private volatile long lastTweetSeconds = MIN_BACKOFF_SECONDS;
+	private volatile long lastPageMinIntervalSeconds = MIN_BACKOFF_SECONDS;
+	private Thread loopThread; // guarded by this
+	private final AtomicBoolean pollInProgress = new AtomicBoolean(false);
+	private final AtomicBoolean tweetInProgress = new AtomicBoolean(false);
+	private final AtomicBoolean pageInProgress = new AtomicBoolean(false);
+	// Only touched on the poll and persist stages, whose tasks for a cycle run one after another
+	private volatile long backoffCount = 0;
+	// Only touched on the tweet stage
+	private long tweetBackoffCount = 0;
+	private int tweetNumber = 1;
+	private String lastTweet = "";
+	// The activity watcher hands this each tweet's records in one batch
+	private final MarkPublished markTweeted = new MarkPublished() {
+		@Override
+		public void markPublished(final Collection<ClusterRecord> records) {
+			persister.markTweeted(records);
+		}};
+	// Only touched on the page stage
+	private int pageRebuildNumber = 1;
+
 
 	public Controller(final Config config, final Persister persister, final PageBuilder pageBuilder, final Tweeter tweeter, final SitePoller sitePoller, final Sleeper sleeper, final ActivityWatcher activityWatcher) {
 		this.config = config;
@@ -42,13 +87,13 @@ public class Controller {
 			@Override
 			public void run() {
 	            LOGGER.info("Interrupt received, stopping");
-	            running.set(false);
+	            requestStop();
 			}}, Signals.SignalName.INT);
 	}
 	
 	public void stop() {
 		LOGGER.debug("Requesting stop");
-		running.set(false);
+		requestStop();
 		try {
 			LOGGER.debug("Waiting for stop");
 			stopEnded.await();
@@ -60,120 +105,345 @@ public class Controller {
 		Signals.handle(oldIntHandler, Signals.SignalName.INT);
 	}
 	
+	private void requestStop() {
+		running.set(false);
+		// cut short the loop's sleep, if the Sleeper allows it
+		synchronized (this) {
+			if (loopThread != null) {
+				loopThread.interrupt();
+			}
+		}
+	}
+
 	public void start() {
-		long backoffCount = 0;
-		long tweetBackoffCount = 0;
-		long nextPollTime = nowSeconds(); // force the first poll.
-		long nextTweet = nowSeconds(); // force the first tweet to happen now
-		// transient counts of tweets and rebuilds...
-		int tweetNumber = 1;
-		int pageRebuildNumber = 1;
-		String lastTweet = "";
-		
+		nextPollMillis = sleeper.currentTimeMillis(); // force the first poll.
+		nextTweetMillis = sleeper.currentTimeMillis(); // force the first tweet to happen now
+
 		LOGGER.info("Starting....");
-		while (running.get()) {
-			final int tweetSeconds = config.getTweetSeconds();
-			final int pollSeconds = config.getPollMinutes() * 60;
-			final long nowSeconds = nowSeconds();
-			LOGGER.debug("Now " + nowSeconds + " poll " + pollSeconds + " next poll " + nextPollTime + " tweet " + tweetSeconds + " next tweet " + nextTweet);
-			if (nowSeconds >= nextPollTime) {
-				if (config.isFeedReadingEnabled()) {
-					try {
-						LOGGER.info("Polling DXCluster...");
-						final ClusterRecord[] records = sitePoller.poll();
-						backoffCount = 0;
-						nextPollTime = nowSeconds() + pollSeconds;
-						LOGGER.debug("Next poll in " + pollSeconds + " secs");
-						if (records.length > 0) {
-							LOGGER.debug("Persisting " + records.length + " records");
-							final int newRecords = persister.persistRecords(records);
-							if (newRecords > 0) {
-								if (config.isPageUpdatingEnabled()) {
-									LOGGER.info("Rebuilding page #" + pageRebuildNumber);
-									pageRebuildNumber++;
-									pageBuilder.rebuildPage(records.length, newRecords);
-									LOGGER.info("Publishing page...");
-									pageBuilder.publishPage();
-								} else {
-									LOGGER.info("Publishing of updated pages is disabled");
-								}
-							}
-						}											
-					} catch (final RuntimeException re) {
-						// Don't increase backoff without bound
-						if (backoffCount < 10) {
-							backoffCount ++;
-							LOGGER.debug("Poll backoff count now {}", backoffCount);
+		synchronized (this) {
+			loopThread = Thread.currentThread();
+		}
+		try {
+			watchUntweetedRecords();
+			while (running.get()) {
+				long sleepMillis;
+				try {
+					scheduleDue(sleeper.currentTimeMillis());
+					sleepMillis = millisUntilNextDeadline(sleeper.currentTimeMillis());
+				} catch (final RuntimeException re) {
+					// what couldn't be scheduled is still due, so try again after a while
+					sleepMillis = MIN_BACKOFF_SECONDS * 1000L;
+					LOGGER.warn("Could not schedule: " + re.getMessage() + ": next attempt in " + MIN_BACKOFF_SECONDS + " seconds");
+				}
+				LOGGER.debug("Sleeping for {} ms", sleepMillis);
+				sleeper.sleep(sleepMillis);
+			}
+		} finally {
+			synchronized (this) {
+				loopThread = null;
+				Thread.interrupted(); // the stages must be drained regardless of a stop's interrupt
+			}
+
+			LOGGER.debug("Waiting for the pipeline to drain");
+			// upstream first, so that downstream stages can accept what's handed on
+			for (final Stage stage : stages) {
+				stage.shutdown();
+				LOGGER.info(stage.toString());
+				if (stage == persistStage) {
+					// don't leave persisted records off the page
+					final PageDebouncer.Update update = pageDebouncer.take(sleeper.currentTimeMillis());
+					if (update != null) {
+						try {
+							submitPageUpdate(update);
+						} catch (final RuntimeException re) {
+							LOGGER.warn("Could not update page: " + re.getMessage());
 						}
-						final long secs = 60 * backoffCount;
-						nextPollTime = nowSeconds() + secs;
-						LOGGER.warn("Could not poll cluster: " + re.getMessage() + ": next attempt in " + secs + " seconds");
 					}
-				} else {
-					LOGGER.info("Polling of DXCluster is disabled");
-					nextPollTime = nowSeconds() + pollSeconds;
 				}
+			}
+			stopEnded.countDown();
+			LOGGER.info("Finished");
+		}
+	}
 
-				try {
-					LOGGER.debug("Giving all untweeted tweets to the activity watcher");
-					// Now give all new tweets to the activity watcher
-					final List<ClusterRecord> untweetedRecords = persister.getUntweetedRecords();
-					if (untweetedRecords != null) {
-						for (final ClusterRecord clusterRecord : untweetedRecords) {
-							LOGGER.info("Incoming activity: {}", clusterRecord);
-							activityWatcher.seen(clusterRecord, new MarkPublished() {
-								@Override
-								public void markPublished(final ClusterRecord record) {
-									persister.markTweeted(record);							
-								}});								
-							
-						}
-					}							
-				} catch (final RuntimeException re) {
-					LOGGER.warn("Could not update tweeted status: " + re.getMessage());
+	private void scheduleDue(final long now) {
+		// Only one poll cycle, and one tweet, is in the pipeline at a time.
+		if (now >= nextPollMillis && pollInProgress.compareAndSet(false, true)) {
+			submit(pollStage, pollInProgress, new Runnable() {
+				@Override
+				public void run() {
+					poll();
 				}
-			}			
-			
-			if (nowSeconds() >= nextTweet) {
-				final String activity = activityWatcher.latestTweetableActivity();
-				try {
-					if ("".equals(activity)) {
-						LOGGER.info("Nothing to tweet");
-					} else if (activity.equals(lastTweet)) {
-						LOGGER.info("Nothing new to tweet (same as last one)");
-					} else {
-						LOGGER.info("Activity: {}", activity);
-						lastTweet = activity;
-						if (config.isTweetingEnabled()) {
-							LOGGER.info("#{} - tweeting {}", tweetNumber, activity);
-							tweeter.tweetText(activity);
-							tweetBackoffCount = 0;
-							tweetNumber++;
-						} else {
-							LOGGER.info("Tweeting is disabled");
+			});
+		}
+		if (now >= nextTweetMillis && tweetInProgress.compareAndSet(false, true)) {
+			submit(tweetStage, tweetInProgress, new Runnable() {
+				@Override
+				public void run() {
+					tweet();
+				}
+			});
+		}
+		submitPageUpdateIfDue(now);
+	}
+
+	// If the task can't be submitted, it's no longer in progress.
+	private void submit(final Stage stage, final AtomicBoolean inProgress, final Runnable task) {
+		try {
+			stage.submit(task);
+		} catch (final RuntimeException re) {
+			inProgress.set(false);
+			throw re;
+		}
+	}
+
+	// The time until the earliest deadline not yet acted on. A deadline that's
+	// in progress will be replaced when its stage finishes, no sooner than the
+	// shortest interval from now.
+	private long millisUntilNextDeadline(final long now) {
+		long sleepMillis = shortestIntervalMillis;
+		if (!pollInProgress.get()) {
+			sleepMillis = Math.min(sleepMillis, nextPollMillis - now);
+		}
+		if (!tweetInProgress.get()) {
+			sleepMillis = Math.min(sleepMillis, nextTweetMillis - now);
+		}
+		if (!pageInProgress.get()) {
+			sleepMillis = Math.min(sleepMillis, pageDebouncer.getDueMillis() - now);
+		}
+		return Math.max(sleepMillis, 0L);
+	}
+
+	// Called by the stages, before their deadline is next set.
+	private void intervalsRead(final long pollSeconds, final long tweetSeconds, final long pageMinIntervalSeconds) {
+		if (pollSeconds >= 0) {
+			lastPollSeconds = pollSeconds;
+		}
+		if (tweetSeconds >= 0) {
+			lastTweetSeconds = tweetSeconds;
+		}
+		if (pageMinIntervalSeconds >= 0) {
+			lastPageMinIntervalSeconds = pageMinIntervalSeconds;
+		}
+		final long shortestSeconds = Math.min(MIN_BACKOFF_SECONDS, Math.min(lastPageMinIntervalSeconds, Math.min(lastPollSeconds, lastTweetSeconds)));
+		shortestIntervalMillis = Math.max(1L, shortestSeconds) * 1000L;
+	}
+
+	private long millisFromNow(final long seconds) {
+		return sleeper.currentTimeMillis() + seconds * 1000L;
+	}
+
+	// On the poll stage.
+	private void poll() {
+		final int pollSeconds = config.getPollMinutes() * 60;
+		intervalsRead(pollSeconds, -1, -1);
+		if (!config.isFeedReadingEnabled()) {
+			LOGGER.info("Polling of DXCluster is disabled");
+			nextPollMillis = millisFromNow(pollSeconds);
+			endPollCycle();
+			return;
+		}
+		final ClusterRecord[] records;
+		try {
+			LOGGER.info("Polling DXCluster...");
+			records = sitePoller.poll();
+		} catch (final RuntimeException re) {
+			pollFailed(re);
+			endPollCycle();
+			return;
+		}
+		backoffCount = 0;
+		nextPollMillis = millisFromNow(pollSeconds);
+		LOGGER.debug("Next poll in " + pollSeconds + " secs");
+		persistStage.submit(new Runnable() {
+			@Override
+			public void run() {
+				persist(records);
+			}
+		});
+	}
+
+	// On the persist stage. The records must be persisted before the next poll
+	// starts, as the poller only returns records newer than those persisted.
+	private void persist(final ClusterRecord[] records) {
+		try {
+			if (records.length > 0) {
+				LOGGER.debug("Persisting " + records.length + " records");
+				final List<ClusterRecord> newRecords = persister.persistRecords(records);
+				if (!newRecords.isEmpty()) {
+					tweetStage.submit(new Runnable() {
+						@Override
+						public void run() {
+							watchRecords(newRecords);
 						}
+					});
+					if (config.isPageUpdatingEnabled()) {
+						final int minIntervalSeconds = config.getPageMinIntervalSeconds();
+						intervalsRead(-1, -1, minIntervalSeconds);
+						// The publisher may hold a page back for its window, so the
+						// page is rebuilt soon enough to be published within the
+						// maximum staleness.
+						final long stalenessMillis = Math.max(0L, config.getPageMaxStalenessSeconds() - config.getPublishWindowSeconds()) * 1000L;
+						final long now = sleeper.currentTimeMillis();
+						pageDebouncer.recordsArrived(now, records.length, newRecords.size(), minIntervalSeconds * 1000L, stalenessMillis);
+						LOGGER.debug("Page update due in {} ms", pageDebouncer.getDueMillis() - now);
+						// often due straight away; don't wait for the loop to wake
+						submitPageUpdateIfDue(now);
+					} else {
+						LOGGER.info("Publishing of updated pages is disabled");
 					}
-					nextTweet = nowSeconds() + tweetSeconds;
-				} catch (final RuntimeException re) {
-					// Don't increase backoff without bound
-					if (tweetBackoffCount < 10) {
-						tweetBackoffCount ++;
-						LOGGER.debug("Tweet backoff count now {}", tweetBackoffCount);
-					}
-					final long secs = 60 * tweetBackoffCount;
-					nextTweet = nowSeconds() + secs;
-					LOGGER.warn("Could not tweet '" + activity + "': " + re.getMessage() + ": next attempt in " + secs + " seconds");
 				}
 			}
+			sitePoller.markPersisted();
+		} catch (final RuntimeException re) {
+			pollFailed(re);
+		} finally {
+			endPollCycle();
+		}
+	}
+
+	private void pollFailed(final RuntimeException re) {
+		// Don't increase backoff without bound
+		if (backoffCount < 10) {
+			backoffCount ++;
+			LOGGER.debug("Poll backoff count now {}", backoffCount);
+		}
+		final long secs = MIN_BACKOFF_SECONDS * backoffCount;
+		nextPollMillis = millisFromNow(secs);
+		LOGGER.warn("Could not poll cluster: " + re.getMessage() + ": next attempt in " + secs + " seconds");
+	}
+
+	// On the poll or persist stage, when the cycle is over, whether it succeeded or not.
+	private void endPollCycle() {
+		for (final Stage stage : stages) {
+			LOGGER.debug(stage.toString());
+		}
+		pollInProgress.set(false);
+	}
 
-			sleeper.sleep(1000L);
+	// On the loop thread or the persist stage. A page update held back while
+	// another is in progress takes in the records of later polls.
+	private void submitPageUpdateIfDue(final long now) {
+		if (now >= pageDebouncer.getDueMillis() && pageInProgress.compareAndSet(false, true)) {
+			final PageDebouncer.Update update = pageDebouncer.takeIfDue(now);
+			if (update != null) {
+				submitPageUpdate(update);
+			} else {
+				pageInProgress.set(false);
+			}
 		}
-		
-		stopEnded.countDown();
-		LOGGER.info("Finished");
 	}
 
-	private long nowSeconds() {
-		return sleeper.currentTimeMillis() / 1000;
+	private void submitPageUpdate(final PageDebouncer.Update update) {
+		try {
+			submit(pageStage, pageInProgress, new Runnable() {
+				@Override
+				public void run() {
+					updatePage(update.retrievedRecords, update.newRecords);
+				}
+			});
+		} catch (final RuntimeException re) {
+			// still to be done, straight away
+			pageDebouncer.recordsArrived(sleeper.currentTimeMillis(), update.retrievedRecords, update.newRecords, 0L, 0L);
+			throw re;
+		}
+	}
+
+	// On the page stage.
+	private void updatePage(final int retrievedRecords, final int newRecords) {
+		try {
+			LOGGER.info("Rebuilding page #" + pageRebuildNumber);
+			pageRebuildNumber++;
+			pageBuilder.rebuildPage(retrievedRecords, newRecords);
+			LOGGER.info("Publishing page...");
+			pageBuilder.publishPage();
+		} catch (final RuntimeException re) {
+			LOGGER.warn("Could not update page: " + re.getMessage());
+		} finally {
+			pageInProgress.set(false);
+		}
+	}
+
+	// On the loop thread, at startup, before any poll can persist new records:
+	// those are handed to the activity watcher as they're persisted, so the
+	// untweeted records are only read in full the once. Until they can be
+	// read, nothing is polled or tweeted, as records persisted meanwhile would
+	// be read with them, and seen twice; reading is retried with backoff.
+	private void watchUntweetedRecords() {
+		long readBackoffCount = 0;
+		while (running.get()) {
+			try {
+				LOGGER.debug("Giving all untweeted tweets to the activity watcher");
+				final List<ClusterRecord> untweetedRecords = persister.getUntweetedRecords();
+				if (untweetedRecords != null && !untweetedRecords.isEmpty()) {
+					tweetStage.submit(new Runnable() {
+						@Override
+						public void run() {
+							watchRecords(untweetedRecords);
+						}
+					});
+				}
+				return;
+			} catch (final RuntimeException re) {
+				// Don't increase backoff without bound
+				if (readBackoffCount < 10) {
+					readBackoffCount ++;
+				}
+				final long secs = MIN_BACKOFF_SECONDS * readBackoffCount;
+				LOGGER.warn("Could not read untweeted records: " + re.getMessage() + ": next attempt in " + secs + " seconds");
+				sleeper.sleep(secs * 1000L);
+			}
+		}
+	}
+
+	// On the tweet stage, which owns the activity watcher.
+	private void watchRecords(final List<ClusterRecord> records) {
+		try {
+			for (final ClusterRecord clusterRecord : records) {
+				LOGGER.info("Incoming activity: {}", clusterRecord);
+				activityWatcher.seen(clusterRecord, markTweeted);
+			}
+		} catch (final RuntimeException re) {
+			LOGGER.warn("Could not update tweeted status: " + re.getMessage());
+		}
+	}
+
+	// On the tweet stage.
+	private void tweet() {
+		final int tweetSeconds = config.getTweetSeconds();
+		intervalsRead(-1, tweetSeconds, -1);
+		// Marks the last tweet's records in the database, so can fail like tweeting.
+		String activity = "";
+		try {
+			activity = activityWatcher.latestTweetableActivity();
+			if ("".equals(activity)) {
+				LOGGER.info("Nothing to tweet");
+			} else if (activity.equals(lastTweet)) {
+				LOGGER.info("Nothing new to tweet (same as last one)");
+			} else {
+				LOGGER.info("Activity: {}", activity);
+				lastTweet = activity;
+				if (config.isTweetingEnabled()) {
+					LOGGER.info("#{} - tweeting {}", tweetNumber, activity);
+					tweeter.tweetText(activity);
+					tweetBackoffCount = 0;
+					tweetNumber++;
+				} else {
+					LOGGER.info("Tweeting is disabled");
+				}
+			}
+			nextTweetMillis = millisFromNow(tweetSeconds);
+		} catch (final RuntimeException re) {
+			// Don't increase backoff without bound
+			if (tweetBackoffCount < 10) {
+				tweetBackoffCount ++;
+				LOGGER.debug("Tweet backoff count now {}", tweetBackoffCount);
+			}
+			final long secs = MIN_BACKOFF_SECONDS * tweetBackoffCount;
+			nextTweetMillis = millisFromNow(secs);
+			LOGGER.warn("Could not tweet '" + activity + "': " + re.getMessage() + ": next attempt in " + secs + " seconds");
+		} finally {
+			tweetInProgress.set(false);
+		}
 	}
 }
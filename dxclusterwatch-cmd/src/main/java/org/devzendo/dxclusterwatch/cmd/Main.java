@@ -4,12 +4,19 @@ import org.devzendo.commoncode.logging.Logging;
 import org.devzendo.commoncode.prefs.PrefsFactory;
 import org.devzendo.commoncode.time.Sleeper;
 import org.devzendo.dxclusterwatch.impl.BitbucketPagesPageBuilder;
+import org.devzendo.dxclusterwatch.impl.CoalescingPublisher;
 import org.devzendo.dxclusterwatch.impl.ConfigConfiguredTwitterFactory;
 import org.devzendo.dxclusterwatch.impl.DXClusterSitePoller;
 import org.devzendo.dxclusterwatch.impl.DefaultActivityWatcher;
+import org.devzendo.dxclusterwatch.impl.DirectoryPublisher;
+import org.devzendo.dxclusterwatch.impl.GitPublisher;
 import org.devzendo.dxclusterwatch.impl.H2Persister;
+import org.devzendo.dxclusterwatch.impl.HgPublisher;
 import org.devzendo.dxclusterwatch.impl.PropertiesConfig;
+import org.devzendo.dxclusterwatch.impl.RetentionJob;
+import org.devzendo.dxclusterwatch.impl.SpotRingBuffer;
 import org.devzendo.dxclusterwatch.impl.Twitter4JTweeter;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,15 +48,21 @@ public class Main {
 			}
 			
 			final Config config = new PropertiesConfig(prefsFactory.getPrefsFile());
+			poolHttpConnections(config);
 			final ConfigConfiguredTwitterFactory configuredTwitterFactory = new ConfigConfiguredTwitterFactory(config);
 			final Tweeter tweeter = new Twitter4JTweeter(configuredTwitterFactory);
 			
 			switch (mode) {
 			case DO_IT:
 				LOGGER.info("Starting DXClusterWatch...");
-				final Persister persister = new H2Persister(prefsFactory.getPrefsDir(), config.getMaxListingEntries());
+				// sized once; the page can shrink if maxListingEntries is lowered, but not grow past this
+				final SpotRingBuffer recentSpots = new SpotRingBuffer(Math.max(1, config.getMaxListingEntries()));
+				final Persister persister = new H2Persister(prefsFactory.getPrefsDir(), config.getMaxListingEntries(), config.getDatabaseConnections(), recentSpots);
+				final Publisher publisher = new CoalescingPublisher(createPublisher(config), config.getPublishWindowSeconds() * 1000L);
+				final RetentionJob retentionJob = new RetentionJob(config, persister);
+				retentionJob.start();
 				try {
-					final PageBuilder pageBuilder = new BitbucketPagesPageBuilder(config, persister);
+					final PageBuilder pageBuilder = new BitbucketPagesPageBuilder(config, recentSpots, publisher);
 					
 					final DXClusterSitePoller sitePoller = new DXClusterSitePoller(prefsFactory.getPrefsDir(), config);
 
@@ -58,7 +71,10 @@ public class Main {
 					new Controller(config, persister, pageBuilder, tweeter, sitePoller, sleeper, activityWatcher).start();
 				}
 				finally {
+					retentionJob.stop();
+					publisher.close();
 					persister.close();
+					LOGGER.info("{}", SymbolTable.shared());
 				}
 				break;
 			case TEST_TWEET:
@@ -73,4 +89,25 @@ public class Main {
 			System.exit(1);
 		}
 	}
+
+	// Jersey's client connects with HttpURLConnection, pooled by the JDK's
+	// keep-alive cache. That's JVM-wide, and reads its size once, before the
+	// first connection is made, so this must come before anything connects,
+	// and later changes to maxConnections are not seen.
+	private static void poolHttpConnections(final Config config) {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", Integer.toString(config.getMaxConnections()));
+	}
+
+	private static Publisher createPublisher(final Config config) {
+		switch (config.getPublisher()) {
+		case GIT:
+			return new GitPublisher(config.getSiteRepoPath());
+		case DIRECTORY:
+			return new DirectoryPublisher(config.getSiteRepoPath(), config.getPublishDirectory());
+		case HG:
+		default:
+			return new HgPublisher(config);
+		}
+	}
 }
@@ -0,0 +1,79 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+/**
+ * Decides when the page is next rebuilt and published, so that however fast
+ * new records arrive, the page is updated at a bounded rate.
+ *
+ * An update is due as soon as new records arrive, but no sooner than the
+ * minimum interval after the last update; records arriving while one is
+ * pending join it, without putting it off. It's never due later than the
+ * maximum staleness after the first record it covers arrived, even if that
+ * breaks the minimum interval. The counts of records retrieved and new are
+ * summed over the polls an update covers.
+ *
+ * Times are in Sleeper milliseconds.
+ */
+public class PageDebouncer {
+	/**
+	 * The records an update covers.
+	 */
+	public static class Update {
+		public final int retrievedRecords;
+		public final int newRecords;
+		public Update(final int retrievedRecords, final int newRecords) {
+			this.retrievedRecords = retrievedRecords;
+			this.newRecords = newRecords;
+		}
+	}
+
+	// guarded by this
+	private boolean pending = false;
+	private int retrievedRecords = 0;
+	private int newRecords = 0;
+	private long firstMillis;
+	private long dueMillis;
+	private boolean updated = false;
+	private long lastUpdateMillis;
+
+	/**
+	 * New records have been persisted; an update is now pending.
+	 */
+	public synchronized void recordsArrived(final long now, final int retrieved, final int added, final long minIntervalMillis, final long maxStalenessMillis) {
+		if (!pending) {
+			pending = true;
+			firstMillis = now;
+		}
+		retrievedRecords += retrieved;
+		newRecords += added;
+		final long due = updated ? Math.max(firstMillis, lastUpdateMillis + minIntervalMillis) : firstMillis;
+		dueMillis = Math.min(due, firstMillis + maxStalenessMillis);
+	}
+
+	// when the pending update is due, or Long.MAX_VALUE if none is pending
+	public synchronized long getDueMillis() {
+		return pending ? dueMillis : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the pending update, if it's due by now; otherwise null
+	 */
+	public synchronized Update takeIfDue(final long now) {
+		return pending && now >= dueMillis ? take(now) : null;
+	}
+
+	/**
+	 * @return the pending update, due or not; null if there isn't one
+	 */
+	public synchronized Update take(final long now) {
+		if (!pending) {
+			return null;
+		}
+		final Update update = new Update(retrievedRecords, newRecords);
+		pending = false;
+		retrievedRecords = 0;
+		newRecords = 0;
+		updated = true;
+		lastUpdateMillis = now;
+		return update;
+	}
+}
@@ -1,10 +1,13 @@
 package org.devzendo.dxclusterwatch.cmd;
 
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 
+// Used from several of the Controller's stages at once, so must be thread safe.
 public interface Persister {
-	int persistRecords(ClusterRecord[] records);
+	// returns the records that were new, as stored
+	List<ClusterRecord> persistRecords(ClusterRecord[] records);
 
 	List<ClusterRecord> getRecords();
 
@@ -13,10 +16,29 @@ public interface Persister {
 
 	void markTweeted(ClusterRecord tweetedRecord);
 
+	// marks them all in one statement
+	void markTweeted(Collection<ClusterRecord> tweetedRecords);
+
 	void close();
 
 	List<ClusterRecord> getRecordsBetween(Timestamp start, Timestamp end);
 	
 	Timestamp getEarliestTimeRecord();
 
+	// the time of the count'th newest record, or null if there are fewer records
+	Timestamp getTimeOfNewest(int count);
+
+	// up to limit of the tweeted records older than before, oldest first
+	List<ClusterRecord> getTweetedRecordsBefore(Timestamp before, int limit);
+
+	// returns the number of records deleted
+	int deleteRecords(Collection<ClusterRecord> records);
+
+	// runs beforeCommit once they're deleted, in the same transaction; if it
+	// throws, none are deleted
+	int deleteRecords(Collection<ClusterRecord> records, Runnable beforeCommit);
+
+	// reclaim the space of deleted records
+	void compact();
+
 }
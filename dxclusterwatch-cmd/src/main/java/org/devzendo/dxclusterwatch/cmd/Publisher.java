@@ -0,0 +1,11 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+import java.util.Set;
+
+public interface Publisher {
+	// publish the named files, relative to the site repo path, which have been updated
+	void publish(Set<String> fileNames);
+
+	// publish anything still pending, and release resources
+	void close();
+}
@@ -0,0 +1,7 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+public enum PublisherType {
+	HG,        // commit and push with the hg executable
+	GIT,       // commit and push in-process with JGit
+	DIRECTORY  // copy into a plain directory, e.g. a web server's document root
+}
@@ -1,5 +1,10 @@
 package org.devzendo.dxclusterwatch.cmd;
 
 public interface SitePoller {
+	// return the new records matching the configured callsigns
 	ClusterRecord[] poll();
-}
\ No newline at end of file
+
+	// the records returned by the last poll() have been persisted, so subsequent
+	// polls need only return newer records
+	void markPersisted();
+}
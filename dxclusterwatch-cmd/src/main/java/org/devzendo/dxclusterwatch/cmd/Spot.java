@@ -0,0 +1,301 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
+
+/**
+ * A compact, immutable form of a ClusterRecord, for holding many spots in
+ * memory. The numeric fields are parsed once, into primitives; the strings
+ * that repeat from spot to spot - callsigns, continents, prefixes, country
+ * names and bands - are taken from the shared SymbolTable, so they're shared
+ * between spots. Only the comment is held per spot.
+ *
+ * Frequencies are held in the feed's resolution, tenths of a kHz, so that an
+ * int covers microwave spots too. A missing time is NO_TIME; missing zones
+ * are zero, and missing positions are NaN. The feed's times are GMT, and are
+ * parsed and formed as GMT whatever the default time zone; its mytime is not
+ * held, as it's formed from the time.
+ */
+public final class Spot {
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	// the feed's times, which are in GMT
+	private static final String TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+	private static final String MYTIME_FORMAT = "dd/MM/yy 'at' HH:mm";
+
+	private final long nr;
+	private final int frequencyTenthsKHz;
+	private final long timeMillis;
+	private final float dxLatitude;
+	private final float dxLongitude;
+	private final float spotterLatitude;
+	private final float spotterLongitude;
+	private final byte dxCqZone;
+	private final byte dxItuZone;
+	private final byte spotterCqZone;
+	private final byte spotterItuZone;
+	private final String band;
+	private final String dxcall;
+	private final String call;
+	private final String dxContinent;
+	private final String dxPrefix;
+	private final String dxName;
+	private final String spotterContinent;
+	private final String spotterPrefix;
+	private final String spotterName;
+	private final String comment;
+
+	private Spot(final ClusterRecord record) {
+		nr = parseNr(record.getNr());
+		frequencyTenthsKHz = parseFrequency(record.getFreq());
+		timeMillis = parseTime(record.getTimeAsTimestamp(), record.getTime());
+		dxLatitude = parsePosition(record.getDx_lat());
+		dxLongitude = parsePosition(record.getDx_long());
+		spotterLatitude = parsePosition(record.getSpotter_lat());
+		spotterLongitude = parsePosition(record.getSpotter_long());
+		dxCqZone = parseZone(record.getDx_cqz());
+		dxItuZone = parseZone(record.getDx_ituz());
+		spotterCqZone = parseZone(record.getSpotter_cqz());
+		spotterItuZone = parseZone(record.getSpotter_ituz());
+		band = intern(record.getBand());
+		dxcall = intern(record.getDxcall());
+		call = intern(record.getCall());
+		dxContinent = intern(record.getDx_cont());
+		dxPrefix = intern(record.getDx_prefix());
+		dxName = intern(record.getDx_name());
+		spotterContinent = intern(record.getSpotter_cont());
+		spotterPrefix = intern(record.getSpotter_prefix());
+		spotterName = intern(record.getSpotter_name());
+		comment = record.getComment();
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the record's nr or frequency is not a number
+	 */
+	public static Spot fromClusterRecord(final ClusterRecord record) {
+		return new Spot(record);
+	}
+
+	public ClusterRecord toClusterRecord() {
+		final ClusterRecord record = new ClusterRecord();
+		record.setNr(Long.toString(nr));
+		record.setFreq(formatFrequency(frequencyTenthsKHz));
+		if (timeMillis != NO_TIME) {
+			final Timestamp when = new Timestamp(timeMillis);
+			record.setTime(gmtFormat(TIME_FORMAT).format(when));
+			record.setTimeAsTimestamp(when);
+			record.setMytime(gmtFormat(MYTIME_FORMAT).format(when));
+		}
+		record.setDx_lat(formatPosition(dxLatitude));
+		record.setDx_long(formatPosition(dxLongitude));
+		record.setSpotter_lat(formatPosition(spotterLatitude));
+		record.setSpotter_long(formatPosition(spotterLongitude));
+		record.setDx_cqz(Byte.toString(dxCqZone));
+		record.setDx_ituz(Byte.toString(dxItuZone));
+		record.setSpotter_cqz(Byte.toString(spotterCqZone));
+		record.setSpotter_ituz(Byte.toString(spotterItuZone));
+		record.setBand(band);
+		record.setDxcall(dxcall);
+		record.setCall(call);
+		record.setDx_cont(dxContinent);
+		record.setDx_prefix(dxPrefix);
+		record.setDx_name(dxName);
+		record.setSpotter_cont(spotterContinent);
+		record.setSpotter_prefix(spotterPrefix);
+		record.setSpotter_name(spotterName);
+		record.setComment(comment);
+		return record;
+	}
+
+	static long parseNr(final String nr) {
+		return Long.parseLong(StringUtils.trimToEmpty(nr));
+	}
+
+	// "14060.3" kHz is 140603; a blank frequency is zero. Any hundredths and
+	// beyond are dropped.
+	static int parseFrequency(final String freq) {
+		final String trimmed = StringUtils.trimToEmpty(freq);
+		if (trimmed.isEmpty()) {
+			return 0;
+		}
+		final int dotIndex = trimmed.indexOf('.');
+		final String kHz = dotIndex == -1 ? trimmed : trimmed.substring(0, dotIndex);
+		final String fraction = dotIndex == -1 ? "" : trimmed.substring(dotIndex + 1);
+		if (!isDigits(kHz) || !isDigits(fraction) || kHz.length() + fraction.length() == 0) {
+			throw new NumberFormatException("Frequency '" + freq + "' is not a number");
+		}
+		final long tenths = (kHz.isEmpty() ? 0L : Long.parseLong(kHz)) * 10L + (fraction.isEmpty() ? 0 : Character.digit(fraction.charAt(0), 10));
+		if (tenths > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Frequency '" + freq + "' is too high");
+		}
+		return (int) tenths;
+	}
+
+	// true for the empty string
+	private static boolean isDigits(final String value) {
+		return value.isEmpty() || StringUtils.isNumeric(value);
+	}
+
+	static String formatFrequency(final int frequencyTenthsKHz) {
+		final int tenths = frequencyTenthsKHz % 10;
+		return tenths == 0 ? Integer.toString(frequencyTenthsKHz / 10) : (frequencyTenthsKHz / 10) + "." + tenths;
+	}
+
+	private static long parseTime(final Timestamp timestamp, final String time) {
+		if (timestamp != null) {
+			return timestamp.getTime();
+		}
+		final String trimmed = StringUtils.trimToNull(time);
+		if (trimmed == null) {
+			return NO_TIME;
+		}
+		try {
+			return gmtFormat(TIME_FORMAT).parse(trimmed).getTime();
+		} catch (final ParseException e) {
+			return NO_TIME;
+		}
+	}
+
+	// not thread safe, so one per use
+	private static SimpleDateFormat gmtFormat(final String pattern) {
+		final SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	private static float parsePosition(final String position) {
+		try {
+			return Float.parseFloat(StringUtils.trimToEmpty(position));
+		} catch (final NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	// whole degrees as the feed has them, without a fraction
+	private static String formatPosition(final float position) {
+		if (Float.isNaN(position)) {
+			return "";
+		}
+		return position == (int) position ? Integer.toString((int) position) : Float.toString(position);
+	}
+
+	// Zones run up to 90; anything that isn't one is zero.
+	private static byte parseZone(final String zone) {
+		try {
+			final int value = Integer.parseInt(StringUtils.trimToEmpty(zone));
+			return value >= 0 && value <= Byte.MAX_VALUE ? (byte) value : 0;
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String intern(final String value) {
+		return SymbolTable.shared().intern(value);
+	}
+
+	public long getNr() {
+		return nr;
+	}
+
+	public int getFrequencyTenthsKHz() {
+		return frequencyTenthsKHz;
+	}
+
+	// the whole kHz, as the activity watcher reports them
+	public int getFrequencyKHz() {
+		return frequencyTenthsKHz / 10;
+	}
+
+	public long getFrequencyHz() {
+		return frequencyTenthsKHz * 100L;
+	}
+
+	// NO_TIME if the spot had none
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	public float getDxLatitude() {
+		return dxLatitude;
+	}
+
+	public float getDxLongitude() {
+		return dxLongitude;
+	}
+
+	public float getSpotterLatitude() {
+		return spotterLatitude;
+	}
+
+	public float getSpotterLongitude() {
+		return spotterLongitude;
+	}
+
+	public byte getDxCqZone() {
+		return dxCqZone;
+	}
+
+	public byte getDxItuZone() {
+		return dxItuZone;
+	}
+
+	public byte getSpotterCqZone() {
+		return spotterCqZone;
+	}
+
+	public byte getSpotterItuZone() {
+		return spotterItuZone;
+	}
+
+	public String getBand() {
+		return band;
+	}
+
+	public String getDxcall() {
+		return dxcall;
+	}
+
+	public String getCall() {
+		return call;
+	}
+
+	public String getDxContinent() {
+		return dxContinent;
+	}
+
+	public String getDxPrefix() {
+		return dxPrefix;
+	}
+
+	public String getDxName() {
+		return dxName;
+	}
+
+	public String getSpotterContinent() {
+		return spotterContinent;
+	}
+
+	public String getSpotterPrefix() {
+		return spotterPrefix;
+	}
+
+	public String getSpotterName() {
+		return spotterName;
+	}
+
+	public String getComment() {
+		return comment;
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+	}
+}
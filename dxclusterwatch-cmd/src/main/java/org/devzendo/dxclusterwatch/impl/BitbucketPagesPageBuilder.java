@@ -2,122 +2,154 @@ package org.devzendo.dxclusterwatch.impl;
 
 import static org.apache.commons.lang3.StringEscapeUtils.escapeHtml4;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
-import java.util.List;
 import java.util.TimeZone;
 
 import org.devzendo.commoncode.resource.ResourceLoader;
-import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
 import org.devzendo.dxclusterwatch.cmd.Config;
 import org.devzendo.dxclusterwatch.cmd.PageBuilder;
-import org.devzendo.dxclusterwatch.cmd.Persister;
-import org.devzendo.dxclusterwatch.util.Execute;
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.devzendo.dxclusterwatch.cmd.Spot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Renders the listing of the most recent spots to index.html in the site repo,
+ * and publishes it with the configured Publisher.
+ *
+ * The spots are rendered straight from the SpotRingBuffer the Persister adds
+ * them to, newest first, not read from the database; nothing of the listing
+ * is held on the heap between rebuilds.
+ *
+ * The page is built in memory, written to a temporary file, and moved over
+ * index.html, so the published page is never partially written.
+ *
+ * Not thread safe; rebuildPage is only called from the Controller's page stage.
+ */
 public class BitbucketPagesPageBuilder implements PageBuilder {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BitbucketPagesPageBuilder.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 
 	private final Config config;
-	private final Persister persister;
+	private final SpotRingBuffer recentSpots;
+	private final Publisher publisher;
 	private final File indexFile;
+	private final File tempIndexFile;
 
 	private final SimpleDateFormat dateFormatGmt;
-	private final String hg;
+	private final String header;
+	private final String footer;
 
+	// of a listed spot's row, roughly, to size the page
+	private static final int ROW_LENGTH = 200;
 
-	public BitbucketPagesPageBuilder(final Config config, final Persister persister) {
+	public BitbucketPagesPageBuilder(final Config config, final SpotRingBuffer recentSpots, final Publisher publisher) {
 		this.config = config;
-		this.persister = persister;
+		this.recentSpots = recentSpots;
+		this.publisher = publisher;
 
 		indexFile = new File(config.getSiteRepoPath(), "index.html");
-		
+		tempIndexFile = new File(config.getSiteRepoPath(), "index.html.tmp");
+
 		dateFormatGmt = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
 		dateFormatGmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-		
-		hg = config.getHgExecutablePath().getAbsolutePath();
+
+		header = ResourceLoader.readResource("header.html");
+		footer = ResourceLoader.readResource("footer.html");
 	}
 
 	@Override
 	public void rebuildPage(final int retrievedRecords, final int newRecords) {
 		LOGGER.debug("Rebuilding page");
+		final int listed = Math.min(config.getMaxListingEntries(), recentSpots.size());
+		final StringBuilder page = new StringBuilder(header.length() + footer.length() + ROW_LENGTH * Math.max(listed, 0) + 512);
+		page.append(header);
+		appendHeader(page, retrievedRecords, newRecords);
+		if (listed <= 0) {
+			appendEmpty(page);
+		} else {
+			appendRecords(page, listed);
+		}
+		page.append(footer);
 		try {
-			final FileWriter fw = new FileWriter(indexFile);
-			try {
-				writeHeader(fw, retrievedRecords, newRecords);
-				final List<ClusterRecord> records = persister.getRecords();
-				if (records.isEmpty()) {
-					writeEmpty(fw);
-				} else {
-					writeRecords(fw, records);
-				}
-				writeFooter(fw);
-			} finally {
-				fw.close();
-			}
+			replaceIndexFile(page.toString().getBytes(UTF8));
 		} catch (final IOException ioe) {
 			LOGGER.warn("Could not write to {}: {}", indexFile, ioe.getMessage());
 		}
 	}
 
-	private void writeHeader(final FileWriter fw, final int retrievedRecords, final int newRecords) throws IOException {
-		appendResource(fw, "header.html");
-
-
+	private void appendHeader(final StringBuilder page, final int retrievedRecords, final int newRecords) {
 		// Time in GMT
-		fw.write("Page updated " + dateFormatGmt.format(new Date()));
-		fw.write("<br>");
-		fw.write(String.format("Retrieved %d records; %d new records", retrievedRecords, newRecords));
-		fw.write("<hr>");
+		page.append("Page updated ").append(dateFormatGmt.format(new Date()));
+		page.append("<br>");
+		page.append("Retrieved ").append(retrievedRecords).append(" records; ").append(newRecords).append(" new records");
+		page.append("<hr>");
 	}
 
-	private void writeRecords(final FileWriter fw, final List<ClusterRecord> records) throws IOException {
-		fw.write("<div class=\"contents\">");
-		fw.write("<table cellspacing=\"0\" class=\"spots\">");
-		fw.write("<tr class=\"title\">");
-		fw.write("<td>Date</td>");
-		fw.write("<td>Freq</td>");
-		fw.write("<td>IMD Station Callsign</td>");
-		fw.write("<td>Called by</td>");
-		fw.write("<td>Comment</td>");
-		fw.write("</tr>\n");
-
-		int num = 0;
-		for (final ClusterRecord record : records) {
-			fw.write("<tr class=\"tr" + num + "\">");
-			num ^= 1;
-			fw.write("<td>" + escapeHtml4(record.getTime()) + "</td>");
-			fw.write("<td>" + escapeHtml4(record.getFreq()) + "</td>");
-			fw.write("<td>" + escapeHtml4(record.getDxcall()) + "</td>");
-			fw.write("<td>" + escapeHtml4(record.getCall()) + "</td>");
-			fw.write("<td>" + escapeHtml4(record.getComment()) + "</td>");
-			fw.write("</tr>\n");
-		}
+	private void appendRecords(final StringBuilder page, final int listed) {
+		page.append("<div class=\"contents\">");
+		page.append("<table cellspacing=\"0\" class=\"spots\">");
+		page.append("<tr class=\"title\">");
+		page.append("<td>Date</td>");
+		page.append("<td>Freq</td>");
+		page.append("<td>IMD Station Callsign</td>");
+		page.append("<td>Called by</td>");
+		page.append("<td>Comment</td>");
+		page.append("</tr>\n");
+
+		recentSpots.readNewestFirst(listed, new SpotRingBuffer.Visitor() {
+			private int num = 0;
+			@Override
+			public void visit(final SpotRingBuffer.Entry entry) {
+				page.append("<tr class=\"tr").append(num).append("\">");
+				num ^= 1;
+				appendCells(page, entry);
+			}
+		});
 
-		fw.write("</table></div>");
+		page.append("</table></div>");
 	}
 
-	private void writeEmpty(final FileWriter fw) throws IOException {
-		fw.write("No stations heard yet - check back later!");
+	// the time as the Persister reads it back from the database
+	private static void appendCells(final StringBuilder page, final SpotRingBuffer.Entry entry) {
+		final long timeMillis = entry.getTimeMillis();
+		final String time = timeMillis == Spot.NO_TIME ? "" : new Timestamp(timeMillis).toString();
+		page.append("<td>").append(escapeHtml4(time)).append("</td>");
+		page.append("<td>").append(escapeHtml4(entry.getFreq())).append("</td>");
+		page.append("<td>").append(escapeHtml4(entry.getDxcall())).append("</td>");
+		page.append("<td>").append(escapeHtml4(entry.getCall())).append("</td>");
+		page.append("<td>").append(escapeHtml4(entry.getComment())).append("</td>");
+		page.append("</tr>\n");
 	}
 
-	private void writeFooter(final FileWriter fw) throws IOException {
-		appendResource(fw, "footer.html");
+	private void appendEmpty(final StringBuilder page) {
+		page.append("No stations heard yet - check back later!");
 	}
 
-	private void appendResource(final FileWriter fw, final String resourcePath) throws IOException {
-		fw.write(ResourceLoader.readResource(resourcePath));
+	private void replaceIndexFile(final byte[] content) throws IOException {
+		final Path temp = tempIndexFile.toPath();
+		Files.write(temp, content);
+		try {
+			Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(temp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
 	}
 
 	@Override
 	public void publishPage() {
 		try {
-			new Execute(config.getSiteRepoPath(), hg, "commit", "-m", "'updated at " + dateFormatGmt.format(new Date()) + "'", "index.html").run();
-			new Execute(config.getSiteRepoPath(), hg, "push").run();
+			publisher.publish(Collections.singleton(indexFile.getName()));
 		} catch (final RuntimeException re) {
 			LOGGER.warn("Could not publish page: " + re.getMessage());
 		}
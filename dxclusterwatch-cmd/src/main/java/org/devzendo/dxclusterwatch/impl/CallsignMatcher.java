@@ -0,0 +1,188 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Matches a DX callsign against all configured callsigns (or prefixes/fragments
+ * of callsigns) in a single pass, using an Aho-Corasick automaton compiled into
+ * a flat transition table. A DX callsign matches if, case-insensitively, it
+ * contains any of the configured callsigns - the same rule as
+ * upperDXCall.contains(callsign) for each callsign, but without upper-casing
+ * the DX callsign, or rescanning it once per configured callsign.
+ *
+ * Matching does not allocate. Instances are immutable, so they can be shared,
+ * and rebuilt only when the configured set of callsigns changes.
+ */
+class CallsignMatcher {
+	private static final String ALL = "ALL";
+
+	private final Set<String> callsigns;
+	private final boolean matchesEverything;
+	// character -> index into the alphabet; 0 is for all characters that
+	// don't appear in any callsign (and never advance the automaton).
+	private final int[] alphabetIndex;
+	private final int alphabetSize;
+	// transitions[state * alphabetSize + alphabetIndex] -> next state
+	private final int[] transitions;
+	private final boolean[] accepting;
+
+	public CallsignMatcher(final Set<String> callsigns) {
+		this.callsigns = callsigns == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<>(callsigns));
+		matchesEverything = this.callsigns.size() == 1 && this.callsigns.contains(ALL);
+
+		char maxChar = 0;
+		for (final String callsign : this.callsigns) {
+			for (int i = 0; i < callsign.length(); i++) {
+				maxChar = (char) Math.max(maxChar, Character.toUpperCase(callsign.charAt(i)));
+			}
+		}
+		alphabetIndex = new int[maxChar + 1];
+		int nextIndex = 1;
+		for (final String callsign : this.callsigns) {
+			for (int i = 0; i < callsign.length(); i++) {
+				final char ch = Character.toUpperCase(callsign.charAt(i));
+				if (alphabetIndex[ch] == 0) {
+					alphabetIndex[ch] = nextIndex++;
+				}
+			}
+		}
+		alphabetSize = nextIndex;
+
+		// Build the trie of all callsigns
+		final List<int[]> gotos = new ArrayList<>();
+		final List<Boolean> accepts = new ArrayList<>();
+		addState(gotos, accepts);
+		for (final String callsign : this.callsigns) {
+			int state = 0;
+			for (int i = 0; i < callsign.length(); i++) {
+				final int c = alphabetIndex[Character.toUpperCase(callsign.charAt(i))];
+				if (gotos.get(state)[c] == -1) {
+					gotos.get(state)[c] = addState(gotos, accepts);
+				}
+				state = gotos.get(state)[c];
+			}
+			accepts.set(state, true);
+		}
+
+		// Breadth-first computation of the failure links, folding them into
+		// the transitions so that matching never has to follow them.
+		final int numStates = gotos.size();
+		transitions = new int[numStates * alphabetSize];
+		accepting = new boolean[numStates];
+		final int[] fail = new int[numStates];
+		final Queue<Integer> queue = new ArrayDeque<>();
+		accepting[0] = accepts.get(0);
+		for (int c = 0; c < alphabetSize; c++) {
+			final int next = gotos.get(0)[c];
+			if (next == -1) {
+				transitions[c] = 0;
+			} else {
+				transitions[c] = next;
+				fail[next] = 0;
+				queue.add(next);
+			}
+		}
+		while (!queue.isEmpty()) {
+			final int state = queue.remove();
+			accepting[state] = accepts.get(state) || accepting[fail[state]];
+			for (int c = 0; c < alphabetSize; c++) {
+				final int next = gotos.get(state)[c];
+				if (next == -1) {
+					transitions[state * alphabetSize + c] = transitions[fail[state] * alphabetSize + c];
+				} else {
+					transitions[state * alphabetSize + c] = next;
+					fail[next] = transitions[fail[state] * alphabetSize + c];
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	private int addState(final List<int[]> gotos, final List<Boolean> accepts) {
+		final int[] row = new int[alphabetSize];
+		Arrays.fill(row, -1);
+		gotos.add(row);
+		accepts.add(false);
+		return gotos.size() - 1;
+	}
+
+	/**
+	 * @param callsigns a set of configured callsigns
+	 * @return true iff this matcher was built from an equal set of callsigns
+	 */
+	public boolean isFor(final Set<String> callsigns) {
+		return this.callsigns.equals(callsigns == null ? Collections.<String>emptySet() : callsigns);
+	}
+
+	/**
+	 * @return true iff no callsigns are configured, so nothing can match
+	 */
+	public boolean matchesNothing() {
+		return callsigns.isEmpty();
+	}
+
+	/**
+	 * @return true iff the only configured callsign is ALL, so no filtering
+	 * is to take place
+	 */
+	public boolean matchesEverything() {
+		return matchesEverything;
+	}
+
+	/**
+	 * @param dxcall a DX callsign, in any case
+	 * @return true iff the DX callsign contains any of the configured callsigns
+	 */
+	public boolean matches(final String dxcall) {
+		if (dxcall == null || matchesNothing()) {
+			return false;
+		}
+		if (accepting[0]) {
+			return true;
+		}
+		int state = 0;
+		for (int i = 0; i < dxcall.length(); i++) {
+			state = next(state, dxcall.charAt(i));
+			if (accepting[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param chars a buffer holding a DX callsign, in any case
+	 * @param offset the start of the DX callsign in the buffer
+	 * @param length the length of the DX callsign
+	 * @return true iff the DX callsign contains any of the configured callsigns
+	 */
+	public boolean matches(final char[] chars, final int offset, final int length) {
+		if (matchesNothing()) {
+			return false;
+		}
+		if (accepting[0]) {
+			return true;
+		}
+		int state = 0;
+		for (int i = offset; i < offset + length; i++) {
+			state = next(state, chars[i]);
+			if (accepting[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int next(final int state, final char dxcallChar) {
+		final char ch = Character.toUpperCase(dxcallChar);
+		final int c = ch < alphabetIndex.length ? alphabetIndex[ch] : 0;
+		return transitions[state * alphabetSize + c];
+	}
+}
@@ -0,0 +1,197 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
+
+/**
+ * Reads the DXCluster's JSON array of spots token by token, rather than binding
+ * the whole array to ClusterRecord[] up front. Each spot's field values are
+ * copied into buffers that are reused for every spot; only spots whose dxcall
+ * passes the CallsignMatcher are turned into ClusterRecords. Their callsigns,
+ * locations and the like are taken from the shared SymbolTable, rather than
+ * copied afresh for each spot.
+ *
+ * The DXCluster lists its spots newest first, so once a spot is reached whose
+ * nr is no greater than that of the newest spot already known, reading stops:
+ * the rest of the feed is already known.
+ *
+ * Not thread safe: the field buffers are shared between reads.
+ */
+class ClusterRecordStreamReader {
+	private static final String[] FIELD_NAMES = new String[] {
+		"band", "call", "comment", "dx_cont", "dx_cqz", "dx_ituz", "dx_lat", "dx_long", "dx_name", "dx_prefix",
+		"dxcall", "freq", "mytime", "nr", "spotter_cont", "spotter_cqz", "spotter_ituz", "spotter_lat",
+		"spotter_long", "spotter_name", "spotter_prefix", "time"
+	};
+	private static final Map<String, Integer> FIELD_INDICES = new HashMap<>();
+	static {
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			FIELD_INDICES.put(FIELD_NAMES[i], i);
+		}
+	}
+	// The fields whose values repeat from spot to spot, taken from the symbol table
+	private static final boolean[] INTERNED = new boolean[FIELD_NAMES.length];
+	static {
+		for (final String name : new String[] {
+				"band", "call", "dx_cont", "dx_cqz", "dx_ituz", "dx_lat", "dx_long", "dx_name", "dx_prefix", "dxcall",
+				"spotter_cont", "spotter_cqz", "spotter_ituz", "spotter_lat", "spotter_long", "spotter_name", "spotter_prefix" }) {
+			INTERNED[FIELD_INDICES.get(name)] = true;
+		}
+	}
+	private static final int DXCALL = FIELD_INDICES.get("dxcall");
+	private static final int NR = FIELD_INDICES.get("nr");
+	public static final long NO_NR = -1L;
+
+	/**
+	 * What was found by a read.
+	 */
+	static class ReadResult {
+		public final int numRecords;
+		public final long highestNr;
+		public ReadResult(final int numRecords, final long highestNr) {
+			this.numRecords = numRecords;
+			this.highestNr = highestNr;
+		}
+	}
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final SymbolTable symbolTable = SymbolTable.shared();
+	private final char[][] values = new char[FIELD_NAMES.length][];
+	private final int[] lengths = new int[FIELD_NAMES.length];
+	private final boolean[] present = new boolean[FIELD_NAMES.length];
+
+	/**
+	 * Read an array of spots, adding those that match to a list.
+	 * @param in the stream of JSON, which is closed after reading.
+	 * @param callsignMatcher the filter that spots' dxcalls must pass
+	 * @param knownNr the nr of the newest spot already known; reading stops
+	 * at the first spot with an nr no greater than this. NO_NR to read all.
+	 * @param matchedRecords the list to add matching records to, in stream order
+	 * @return the number of new spots read from the stream, matching or not,
+	 * and the highest nr seen, or NO_NR if none.
+	 * @throws IOException on failure to read, or malformed JSON.
+	 */
+	public ReadResult read(final InputStream in, final CallsignMatcher callsignMatcher, final long knownNr, final List<ClusterRecord> matchedRecords) throws IOException {
+		final JsonParser parser = jsonFactory.createJsonParser(in);
+		try {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException("Expected an array of spots", parser.getCurrentLocation());
+			}
+			int numRecords = 0;
+			long highestNr = NO_NR;
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				if (callsignMatcher.matchesNothing()) {
+					numRecords++;
+					parser.skipChildren();
+					continue;
+				}
+				readFields(parser);
+				final long nr = nr();
+				if (nr != NO_NR && nr <= knownNr) {
+					return new ReadResult(numRecords, highestNr);
+				}
+				numRecords++;
+				highestNr = Math.max(highestNr, nr);
+				if (callsignMatcher.matchesEverything() || (present[DXCALL] && callsignMatcher.matches(values[DXCALL], 0, lengths[DXCALL]))) {
+					matchedRecords.add(toRecord());
+				}
+			}
+			if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+				throw new JsonParseException("Expected a spot object or the end of the array", parser.getCurrentLocation());
+			}
+			return new ReadResult(numRecords, highestNr);
+		} finally {
+			parser.close();
+		}
+	}
+
+	// The nr of the spot just read, parsed in place; NO_NR if absent or not a number.
+	private long nr() {
+		if (!present[NR] || lengths[NR] == 0) {
+			return NO_NR;
+		}
+		long nr = 0;
+		for (int i = 0; i < lengths[NR]; i++) {
+			final char ch = values[NR][i];
+			if (ch < '0' || ch > '9') {
+				return NO_NR;
+			}
+			nr = nr * 10 + (ch - '0');
+		}
+		return nr;
+	}
+
+	private void readFields(final JsonParser parser) throws IOException {
+		Arrays.fill(present, false);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final Integer index = FIELD_INDICES.get(parser.getCurrentName());
+			final JsonToken value = parser.nextToken();
+			if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				continue;
+			}
+			if (index == null || value == JsonToken.VALUE_NULL) {
+				continue;
+			}
+			final int length = parser.getTextLength();
+			if (values[index] == null || values[index].length < length) {
+				values[index] = new char[Math.max(length, 32)];
+			}
+			System.arraycopy(parser.getTextCharacters(), parser.getTextOffset(), values[index], 0, length);
+			lengths[index] = length;
+			present[index] = true;
+		}
+		if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+			throw new JsonParseException("Expected a field name or the end of the spot", parser.getCurrentLocation());
+		}
+	}
+
+	private ClusterRecord toRecord() {
+		final ClusterRecord record = new ClusterRecord();
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			if (present[i]) {
+				setField(record, i, INTERNED[i] ? symbolTable.intern(values[i], 0, lengths[i]) : new String(values[i], 0, lengths[i]));
+			}
+		}
+		return record;
+	}
+
+	private static void setField(final ClusterRecord record, final int index, final String value) {
+		switch (index) {
+		case 0: record.setBand(value); break;
+		case 1: record.setCall(value); break;
+		case 2: record.setComment(value); break;
+		case 3: record.setDx_cont(value); break;
+		case 4: record.setDx_cqz(value); break;
+		case 5: record.setDx_ituz(value); break;
+		case 6: record.setDx_lat(value); break;
+		case 7: record.setDx_long(value); break;
+		case 8: record.setDx_name(value); break;
+		case 9: record.setDx_prefix(value); break;
+		case 10: record.setDxcall(value); break;
+		case 11: record.setFreq(value); break;
+		case 12: record.setMytime(value); break;
+		case 13: record.setNr(value); break;
+		case 14: record.setSpotter_cont(value); break;
+		case 15: record.setSpotter_cqz(value); break;
+		case 16: record.setSpotter_ituz(value); break;
+		case 17: record.setSpotter_lat(value); break;
+		case 18: record.setSpotter_long(value); break;
+		case 19: record.setSpotter_name(value); break;
+		case 20: record.setSpotter_prefix(value); break;
+		case 21: record.setTime(value); break;
+		default: throw new IllegalStateException("No field at index " + index);
+		}
+	}
+}
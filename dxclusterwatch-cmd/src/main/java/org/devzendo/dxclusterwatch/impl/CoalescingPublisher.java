@@ -0,0 +1,143 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates a Publisher so that publishes requested within a window of the
+ * last one are merged into a single publish at the end of the window, rather
+ * than each committing and pushing in turn. The first publish after a quiet
+ * spell happens straight away.
+ *
+ * Publishing happens on a thread of its own, so callers never wait for it;
+ * failures are logged, and the files are published again after a backoff
+ * that grows with each successive failure, along with any requested
+ * meanwhile. Anything still pending is published on close.
+ */
+public class CoalescingPublisher implements Publisher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingPublisher.class);
+	private static final long RETRY_MILLIS = 60 * 1000L;
+	// Don't increase backoff without bound
+	private static final int MAX_RETRY_BACKOFF = 10;
+
+	private final Publisher delegate;
+	private final long windowMillis;
+	private final long retryMillis;
+	private final ScheduledThreadPoolExecutor executor;
+
+	// guarded by this
+	private final Set<String> pending = new LinkedHashSet<>();
+	private boolean scheduled = false;
+	private long lastPublishMillis = 0L;
+	private int coalesced = 0;
+	private int failures = 0;
+
+	public CoalescingPublisher(final Publisher delegate, final long windowMillis) {
+		this(delegate, windowMillis, RETRY_MILLIS);
+	}
+
+	CoalescingPublisher(final Publisher delegate, final long windowMillis, final long retryMillis) {
+		this.delegate = delegate;
+		this.windowMillis = windowMillis;
+		this.retryMillis = retryMillis;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = defaultFactory.newThread(r);
+				thread.setName("publisher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	@Override
+	public synchronized void publish(final Set<String> fileNames) {
+		pending.addAll(fileNames);
+		if (scheduled) {
+			coalesced++;
+			LOGGER.debug("Publish of {} merged with one already pending", fileNames);
+			return;
+		}
+		final long delayMillis = Math.max(0L, lastPublishMillis + windowMillis - System.currentTimeMillis());
+		LOGGER.debug("Publishing {} in {} ms", pending, delayMillis);
+		schedulePending(delayMillis);
+	}
+
+	// guarded by this
+	private void schedulePending(final long delayMillis) {
+		scheduled = true;
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				publishPending();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void publishPending() {
+		final Set<String> fileNames;
+		final int merged;
+		synchronized (this) {
+			scheduled = false;
+			if (pending.isEmpty()) {
+				return;
+			}
+			fileNames = new LinkedHashSet<>(pending);
+			pending.clear();
+			merged = coalesced;
+			coalesced = 0;
+			lastPublishMillis = System.currentTimeMillis();
+		}
+		LOGGER.info("Publishing {} ({} requests merged)", fileNames, merged);
+		try {
+			delegate.publish(fileNames);
+			synchronized (this) {
+				failures = 0;
+			}
+		} catch (final RuntimeException re) {
+			synchronized (this) {
+				pending.addAll(fileNames);
+				if (failures < MAX_RETRY_BACKOFF) {
+					failures++;
+				}
+				final long retryDelayMillis = retryMillis * failures;
+				LOGGER.warn("Could not publish " + fileNames + ": " + re.getMessage() + ": next attempt in " + retryDelayMillis + " ms");
+				// on close, there's no next attempt
+				if (!scheduled && !executor.isShutdown()) {
+					schedulePending(retryDelayMillis);
+				}
+			}
+		}
+	}
+
+	// number of publish requests merged into the one pending
+	public synchronized int getCoalesced() {
+		return coalesced;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				LOGGER.debug("Waiting for publishing to finish");
+			}
+		} catch (final InterruptedException e) {
+			LOGGER.warn("Interrupted waiting for publishing to finish");
+			Thread.currentThread().interrupt();
+		}
+		publishPending();
+		delegate.close();
+	}
+}
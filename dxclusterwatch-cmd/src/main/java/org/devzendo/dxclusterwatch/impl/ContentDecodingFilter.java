@@ -0,0 +1,47 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Asks for a compressed response, and transparently decodes gzip or deflate
+ * encoded response entities, so that readers of the entity stream see the
+ * uncompressed content.
+ */
+class ContentDecodingFilter extends ClientFilter {
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+
+	@Override
+	public ClientResponse handle(final ClientRequest cr) throws ClientHandlerException {
+		if (!cr.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+			cr.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+		}
+		final ClientResponse response = getNext().handle(cr);
+		final String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (encoding != null && response.hasEntity()) {
+			final InputStream entityInputStream = response.getEntityInputStream();
+			try {
+				if (encoding.trim().equalsIgnoreCase(GZIP)) {
+					response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+					response.setEntityInputStream(new GZIPInputStream(entityInputStream));
+				} else if (encoding.trim().equalsIgnoreCase(DEFLATE)) {
+					response.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+					response.setEntityInputStream(new InflaterInputStream(entityInputStream));
+				}
+			} catch (final IOException e) {
+				throw new ClientHandlerException("Could not decode " + encoding + " response: " + e.getMessage(), e);
+			}
+		}
+		return response;
+	}
+}
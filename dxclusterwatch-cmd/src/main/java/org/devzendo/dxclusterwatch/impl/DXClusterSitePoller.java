@@ -1,6 +1,9 @@
 package org.devzendo.dxclusterwatch.impl;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
@@ -9,30 +12,46 @@ import java.util.Set;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.MultivaluedMap;
 
-import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
 import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
 import org.devzendo.dxclusterwatch.cmd.Config;
 import org.devzendo.dxclusterwatch.cmd.SitePoller;
+import org.devzendo.dxclusterwatch.impl.ClusterRecordStreamReader.ReadResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
-import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.ClientFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
-import com.sun.jersey.core.header.InBoundHeaders;
 
 public class DXClusterSitePoller implements SitePoller {
 	private static Logger LOGGER = LoggerFactory.getLogger(DXClusterSitePoller.class);
 	private final Config config;
 	private Client client;
+	private CallsignMatcher callsignMatcher; // rebuilt when the configured callsigns change
+	private final ClusterRecordStreamReader streamReader = new ClusterRecordStreamReader();
+	// How far through the feed we are: as confirmed by markPersisted(), and as
+	// read by the last poll.
+	private FeedPosition persisted = FeedPosition.START;
+	private FeedPosition polled = FeedPosition.START;
+
+	/**
+	 * The highest spot nr read from the feed, and the validators of the
+	 * response it was read from, for a conditional request next time.
+	 */
+	private static class FeedPosition {
+		public static final FeedPosition START = new FeedPosition(ClusterRecordStreamReader.NO_NR, null, null);
+		public final long nr;
+		public final String eTag;
+		public final String lastModified;
+		public FeedPosition(final long nr, final String eTag, final String lastModified) {
+			this.nr = nr;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+	}
 
 	public DXClusterSitePoller(final File prefsDir, final Config config) {
 		this.config = config;
@@ -40,34 +59,13 @@ public class DXClusterSitePoller implements SitePoller {
 			KeyStore.getInstance("JKS");
 			System.setProperty("javax.net.ssl.trustStore", new File(prefsDir, "cacerts").getAbsolutePath());
 
-			final ClientConfig clientConfig = new DefaultClientConfig();
-			clientConfig.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
-			clientConfig.getClasses().add(JacksonJsonProvider.class);
-			
-			client = Client.create(clientConfig);
-			
-			// DXCluster.co.uk always sends a content-type of text/html, which Jersey doesn't interpret as application/json, so bodge the response
-			// to be application/json to force JSON deserialisation.
-			client.addFilter(new ClientFilter() {
-
-				@Override
-				public ClientResponse handle(final ClientRequest cr) throws ClientHandlerException {
-					final ClientResponse response = getNext().handle(cr);
-					final InBoundHeaders headers = new InBoundHeaders();
-					final MultivaluedMap<String, String> origHeaders = response.getHeaders();
-					for (final String header: origHeaders.keySet()) {
-						if (header.equalsIgnoreCase(HttpHeaders.CONTENT_TYPE)) {
-							//System.out.println("Setting the application/json content type");
-							headers.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-						} else {
-							final List<String> origHeaderValue = origHeaders.get(header);
-							//System.out.println("Setting header " + header + " to " + origHeaderValue);
-							headers.put(header, origHeaderValue);
-						}
-					}
-					return new ClientResponse(response.getStatus(), headers, response.getEntityInputStream(), client.getMessageBodyWorkers());
-				}});
-			
+			// Connections are pooled by the JDK's keep-alive cache, sized by Main
+			// at startup.
+
+			// The DXCluster always sends a content-type of text/html; the body is
+			// read as a stream of JSON by the ClusterRecordStreamReader regardless.
+			client = Client.create(new DefaultClientConfig());
+			client.addFilter(new ContentDecodingFilter());
 		} catch (final KeyStoreException e1) {
 			final String msg = "Can't set up key store: " + e1.getMessage();
 			LOGGER.error(msg);
@@ -79,43 +77,112 @@ public class DXClusterSitePoller implements SitePoller {
 	public ClusterRecord[] poll() {
 		LOGGER.debug("Polling DXCluster...");
 		final long start = System.currentTimeMillis();
+		final CallsignMatcher matcher = callsignMatcherFor(config.getCallsigns());
+		// A stalled server must not hold up the Controller for long; the timeout
+		// fails the poll, and the Controller backs off. Set on each poll, as they
+		// may have been reconfigured.
+		client.setConnectTimeout(config.getConnectTimeoutSeconds() * 1000);
+		client.setReadTimeout(config.getReadTimeoutSeconds() * 1000);
 		final WebResource webResource = client.resource(config.getServerURI());
-		final ClientResponse clientResponse = webResource.type(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-		if (clientResponse.getStatus() == 200) {
-			LOGGER.debug("Response: " + clientResponse);
-			final ClusterRecord[] r = clientResponse.getEntity(ClusterRecord[].class);
-			final Set<String> callsigns = config.getCallsigns();
-			final ClusterRecord[] filtered = filterCallsigns(callsigns, r);
-			final long stop = System.currentTimeMillis();
-			LOGGER.debug("Retrieved {} records in {} ms, {} filtered records", r.length, (stop - start), filtered.length);
-			return filtered;
-		} else {
-			LOGGER.warn("Failed to poll DXCluster: " + clientResponse);
-			return new ClusterRecord[0];
+		WebResource.Builder request = webResource.type(MediaType.APPLICATION_JSON);
+		if (persisted.eTag != null) {
+			request = request.header(HttpHeaders.IF_NONE_MATCH, persisted.eTag);
+		}
+		if (persisted.lastModified != null) {
+			request = request.header(HttpHeaders.IF_MODIFIED_SINCE, persisted.lastModified);
+		}
+		final ClientResponse clientResponse = request.get(ClientResponse.class);
+		try {
+			if (clientResponse.getStatus() == 304) {
+				LOGGER.debug("DXCluster not modified since last poll");
+				polled = persisted;
+				return new ClusterRecord[0];
+			} else if (clientResponse.getStatus() == 200) {
+				LOGGER.debug("Response: " + clientResponse);
+				final List<ClusterRecord> filtered = new ArrayList<>();
+				final ReadResult result = readRecords(new DrainingInputStream(clientResponse.getEntityInputStream()), matcher, filtered);
+				polled = new FeedPosition(Math.max(persisted.nr, result.highestNr),
+						clientResponse.getHeaders().getFirst(HttpHeaders.ETAG),
+						clientResponse.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED));
+				final long stop = System.currentTimeMillis();
+				LOGGER.debug("Retrieved {} records newer than #{} in {} ms, {} filtered records", result.numRecords, persisted.nr, (stop - start), filtered.size());
+				return filtered.toArray(new ClusterRecord[0]);
+			} else {
+				LOGGER.warn("Failed to poll DXCluster: " + clientResponse);
+				return new ClusterRecord[0];
+			}
+		} finally {
+			clientResponse.close();
 		}
 	}
 
+	@Override
+	public void markPersisted() {
+		if (polled != persisted) {
+			LOGGER.debug("Records up to #{} persisted", polled.nr);
+			persisted = polled;
+		}
+	}
+
+	private ReadResult readRecords(final InputStream entityInputStream, final CallsignMatcher matcher, final List<ClusterRecord> filtered) {
+		try {
+			return streamReader.read(entityInputStream, matcher, persisted.nr, filtered);
+		} catch (final IOException e) {
+			throw new ClientHandlerException("Could not read spots: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reading stops at the first known spot, but the connection can only be
+	 * kept alive for reuse if the rest of the response has been consumed.
+	 */
+	private static class DrainingInputStream extends FilterInputStream {
+		private final byte[] drainBuffer = new byte[4096];
+
+		public DrainingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				while (in.read(drainBuffer) != -1) {
+					// discard
+				}
+			} finally {
+				super.close();
+			}
+		}
+	}
+
+	private CallsignMatcher callsignMatcherFor(final Set<String> callsigns) {
+		if (callsignMatcher == null || !callsignMatcher.isFor(callsigns)) {
+			LOGGER.debug("Building callsign matcher for {} callsigns", callsigns == null ? 0 : callsigns.size());
+			callsignMatcher = new CallsignMatcher(callsigns);
+			// Spots already read may match the new callsigns, so read them all again.
+			persisted = FeedPosition.START;
+			polled = FeedPosition.START;
+		}
+		return callsignMatcher;
+	}
+
 	static ClusterRecord[] filterCallsigns(final Set<String> callsigns, final ClusterRecord[] records) {
-		LOGGER.debug("Filtering {} records by {} callsigns", records.length, callsigns.size());
-		if (callsigns == null || callsigns.isEmpty()) {
+		return filterCallsigns(new CallsignMatcher(callsigns), records);
+	}
+
+	static ClusterRecord[] filterCallsigns(final CallsignMatcher callsignMatcher, final ClusterRecord[] records) {
+		LOGGER.debug("Filtering {} records", records.length);
+		if (callsignMatcher.matchesNothing()) {
 			return new ClusterRecord[0];
 		}
 		// Don't filter?
-		if (callsigns.size() == 1 && callsigns.contains("ALL")) {
+		if (callsignMatcher.matchesEverything()) {
 			return records;
 		}
 		
 		final ArrayList<ClusterRecord> outList = new ArrayList<>();
 		for (final ClusterRecord cr : records) {
-			final String upperDXCall = cr.getDxcall().toUpperCase();
-			boolean found = false;
-			for (final String callsign : callsigns) {
-				//LOGGER.debug("Does received callsign {} contain requested {}", upperDXCall, callsign);
-				if (upperDXCall.contains(callsign)) {
-					found = true;
-				}
-			}
-			if (found) {
+			if (callsignMatcher.matches(cr.getDxcall())) {
 				outList.add(cr);
 			}
 		}
@@ -7,18 +7,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.PriorityQueue;
 import java.util.TimeZone;
+import java.util.TreeSet;
 
 import org.apache.commons.lang3.StringUtils;
 import org.devzendo.commoncode.time.Sleeper;
-import org.devzendo.commoncode.types.RepresentationType;
 import org.devzendo.dxclusterwatch.cmd.ActivityWatcher;
 import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,6 +57,10 @@ public class DefaultActivityWatcher implements ActivityWatcher {
 		public long expiryTime;
 		public MarkPublished markPublished;
 		public final ClusterRecord record;
+		// the order in which the watcher saw it
+		long sequence;
+		// the callsign's entries it's one of
+		Activity activity;
 		public Stuff(final ClusterRecord record, final Timestamp when, final int freq, final long expiryTime, final MarkPublished markPublished) {
 			this.record = record;
 			this.when = when;
@@ -70,27 +75,56 @@ public class DefaultActivityWatcher implements ActivityWatcher {
 			final String formattedTime = sdf.format(date);
 			return "" + frequencyKHz + " " + (formattedTime);
 		}
-		public void markPublished() {
-			markPublished.markPublished(record);
-		}
 	}
 	
-	private class Callsign extends RepresentationType<String> {
-		public Callsign(final String value) {
-			super(value);
+	// Entries heard at the same time are kept in the order they were seen
+	private static final Comparator<Stuff> BY_TIME = new Comparator<Stuff>() {
+		@Override
+		public int compare(final Stuff o1, final Stuff o2) {
+			final int byWhen = o1.when.compareTo(o2.when);
+			return byWhen != 0 ? byWhen : Long.compare(o1.sequence, o2.sequence);
+		}};
+
+	// The entries heard from one callsign
+	private static class Activity {
+		final String callsign;
+		// one entry per frequency, tweeted or not, until it's purged
+		final Map<Integer, Stuff> byFrequency = new HashMap<>();
+		// earliest first
+		final TreeSet<Stuff> untweeted = new TreeSet<>(BY_TIME);
+
+		Activity(final String callsign) {
+			this.callsign = callsign;
 		}
 	}
-	
-	private final Map<Callsign, List<Stuff>> map = new HashMap<>();
+
+	// keyed on callsigns from the symbol table, so lookups mostly compare references
+	private final Map<String, Activity> map = new HashMap<>();
+	private final SymbolTable symbolTable = SymbolTable.shared();
+	// The callsigns with untweeted entries, ordered on their earliest untweeted
+	// entry. An activity must be removed before its untweeted entries change,
+	// and added back afterwards.
+	private final TreeSet<Activity> byEarliestUntweeted = new TreeSet<>(new Comparator<Activity>() {
+		@Override
+		public int compare(final Activity o1, final Activity o2) {
+			return BY_TIME.compare(o1.untweeted.first(), o2.untweeted.first());
+		}});
+	// The tweeted entries, soonest to expire first; untweeted entries don't expire.
+	private final PriorityQueue<Stuff> expiring = new PriorityQueue<>(11, new Comparator<Stuff>() {
+		@Override
+		public int compare(final Stuff o1, final Stuff o2) {
+			return Long.compare(o1.expiryTime, o2.expiryTime);
+		}});
+	private int entries = 0;
+	private long sequence = 0;
+
+	// Records to be marked as published, grouped by who to tell, flushed at the
+	// end of each latestTweetableActivity().
+	private final Map<MarkPublished, List<ClusterRecord>> pendingMarks = new LinkedHashMap<>();
 	
 	@Override
 	public int numEntries() {
-		int count = 0;
-		final Set<Entry<Callsign, List<Stuff>>> entries = map.entrySet();
-		for (final Entry<Callsign, List<Stuff>> entry : entries) {
-			count += entry.getValue().size();
-		}
-		return count;
+		return entries;
 	}
 	
 	@Override
@@ -114,34 +148,58 @@ public class DefaultActivityWatcher implements ActivityWatcher {
 	// Times are removed from the callsign's time list after 30 mins. Callsigns with empty time lists are removed.
 	@Override
 	public boolean seen(final ClusterRecord record, final MarkPublished markPublished) {
-		final Callsign callsign = new Callsign(record.getDxcall());
-		boolean foundDuplicate = false;
-		if (map.containsKey(callsign)) {
-			final List<Stuff> records = map.get(callsign);
-			final Stuff newStuff = toStuff(record, markPublished);
-			for (final Stuff stuff : records) {
-				if (stuff.frequencyKHz == newStuff.frequencyKHz) {
-					// mark this as immediately published, don't want to see it again...
-					markPublished.markPublished(record);
-					foundDuplicate = true;
-					break;
-				}
-			}
-			if (!foundDuplicate) {
-				records.add(newStuff);
-			}
+		// only the two fields needed are parsed, each once
+		final String callsign = symbolTable.intern(record.getDxcall());
+		final int frequencyKHz = toInt(record.getFreq());
+		Activity activity = map.get(callsign);
+		if (activity == null) {
+			activity = new Activity(callsign);
+			map.put(callsign, activity);
+		}
+		final boolean foundDuplicate = activity.byFrequency.containsKey(frequencyKHz);
+		if (foundDuplicate) {
+			// mark this as published with the next tweet, don't want to see it again...
+			addPendingMark(markPublished, record);
 		} else {
-			final List<Stuff> records = new ArrayList<>();
-			records.add(toStuff(record, markPublished));
 			// it'll be marked published when it makes it into a tweet
-			map.put(callsign, records);
+			final Stuff newStuff = toStuff(record, frequencyKHz, activity, markPublished);
+			if (!activity.untweeted.isEmpty()) {
+				byEarliestUntweeted.remove(activity);
+			}
+			activity.byFrequency.put(newStuff.frequencyKHz, newStuff);
+			activity.untweeted.add(newStuff);
+			byEarliestUntweeted.add(activity);
+			entries++;
 		}
 		purge();
 		return !foundDuplicate;
 	}
 
-	private Stuff toStuff(final ClusterRecord record, final MarkPublished markPublished) {
-		return new Stuff(record, record.getTimeAsTimestamp(), toInt(record.getFreq()), sleeper.currentTimeMillis() + EXPIRY_MS, markPublished);
+	private void addPendingMark(final MarkPublished markPublished, final ClusterRecord record) {
+		List<ClusterRecord> records = pendingMarks.get(markPublished);
+		if (records == null) {
+			records = new ArrayList<>();
+			pendingMarks.put(markPublished, records);
+		}
+		records.add(record);
+	}
+
+	private void flushPendingMarks() {
+		try {
+			for (final Entry<MarkPublished, List<ClusterRecord>> entry : pendingMarks.entrySet()) {
+				LOGGER.debug("Marking {} records as published", entry.getValue().size());
+				entry.getKey().markPublished(entry.getValue());
+			}
+		} finally {
+			pendingMarks.clear();
+		}
+	}
+
+	private Stuff toStuff(final ClusterRecord record, final int frequencyKHz, final Activity activity, final MarkPublished markPublished) {
+		final Stuff stuff = new Stuff(record, record.getTimeAsTimestamp(), frequencyKHz, sleeper.currentTimeMillis() + EXPIRY_MS, markPublished);
+		stuff.sequence = sequence++;
+		stuff.activity = activity;
+		return stuff;
 	}
 
 	@Override
@@ -159,116 +217,97 @@ public class DefaultActivityWatcher implements ActivityWatcher {
 	// tweet
 	// purge old times, and if callsign entry empty, purge that.
 	public String latestTweetableActivity() {
+		try {
+			return formTweetableActivity();
+		} finally {
+			flushPendingMarks();
+		}
+	}
+
+	private String formTweetableActivity() {
 		purge();
-		if (map.isEmpty()) {
+		if (byEarliestUntweeted.isEmpty()) {
 			return "";
 		}
+		final List<Stuff> marked = new ArrayList<>();
 		final StringBuilder sb = new StringBuilder();
-		final List<Callsign> callsignsByEntryTimes = sortMapByEntryTime();
-		for (final Callsign callsign : callsignsByEntryTimes) {
-			final List<Stuff> stuffs = map.get(callsign);
-//			System.out.println("list of stuff for callsign " + callsign + " contains " + stuffs.size() + " entries");
-			final List<Stuff> untweetedStuff = filterUntweetedAndSortOnTime(stuffs);
-			if (!untweetedStuff.isEmpty()) {
-//				System.out.println("sb is [" + sb.toString() + "] text is [" + text.toString() + "]");
-				final int remaining = 140 - (sb.toString().length() + callsign.toString().length() + 4 /* 4 for the _()\n */);
-				final String joined = joinWhileStillFitsAndMarkTweeted(remaining, untweetedStuff);
-				if (!joined.isEmpty()) {
-					final StringBuilder text = new StringBuilder();
-					text.append(callsign);
-					text.append(" (");
-					text.append(joined);
-					text.append(")\n");				
-					sb.append(text.toString());
-				}
+		// copied, as the activities are reordered as their entries are tweeted
+		final List<Activity> activitiesByEarliestUntweeted = new ArrayList<>(byEarliestUntweeted);
+		for (final Activity activity : activitiesByEarliestUntweeted) {
+			final String callsign = activity.callsign;
+			final int remaining = 140 - (sb.length() + callsign.length() + 4 /* 4 for the _()\n */);
+			final int start = sb.length();
+			final int firstMarked = marked.size();
+			sb.append(callsign);
+			sb.append(" (");
+			if (appendWhileStillFitsAndMarkTweeted(sb, remaining, activity.untweeted, marked) == 0) {
+				sb.setLength(start);
 			} else {
-//				System.out.println("callsign " + callsign + " list of untweeted stuff is empty");
+				sb.append(")\n");
+
+				byEarliestUntweeted.remove(activity);
+				for (final Stuff stuff : marked.subList(firstMarked, marked.size())) {
+					activity.untweeted.remove(stuff);
+					expiring.add(stuff);
+				}
+				if (!activity.untweeted.isEmpty()) {
+					byEarliestUntweeted.add(activity);
+				}
 			}
 		}
+		for (final Stuff stuff : marked) {
+			addPendingMark(stuff.markPublished, stuff.record);
+		}
 		return sb.toString().trim();
 	}
 
 	@Override
 	public void purge() {
 		final long now = sleeper.currentTimeMillis();
-		final Set<Entry<Callsign, List<Stuff>>> entries = map.entrySet();
-		final Iterator<Entry<Callsign, List<Stuff>>> entryIterator = entries.iterator();
-		while (entryIterator.hasNext()) {
-			final Entry<Callsign, List<Stuff>> entry = entryIterator.next();
-			final Iterator<Stuff> stuffIterator = entry.getValue().iterator();
-			while (stuffIterator.hasNext()) {
-				final Stuff stuff = stuffIterator.next();
-				if (stuff.tweeted == true && stuff.expiryTime < now) {
-					LOGGER.info("Purging {}", stuff);
-					stuffIterator.remove();
-				}
-			}
-			if (entry.getValue().isEmpty()) {
-				LOGGER.info("Purging callsign {}", entry.getKey());
-				entryIterator.remove();
+		while (!expiring.isEmpty() && expiring.peek().expiryTime < now) {
+			final Stuff stuff = expiring.poll();
+			LOGGER.info("Purging {}", stuff);
+			final Activity activity = stuff.activity;
+			activity.byFrequency.remove(stuff.frequencyKHz);
+			entries--;
+			if (activity.byFrequency.isEmpty()) {
+				LOGGER.info("Purging callsign {}", activity.callsign);
+				map.remove(activity.callsign);
 			}
 		}
 	}
 
-	private List<Callsign> sortMapByEntryTime() {
-		final List<Callsign> callsigns = new ArrayList<>(map.keySet());
-		Collections.sort(callsigns, new Comparator<Callsign>() {
-			@Override
-			public int compare(final Callsign o1, final Callsign o2) {
-				final List<Stuff> o1stuffs = map.get(o1);
-				final List<Stuff> o2stuffs = map.get(o2);
-				if (o1stuffs.size() == 0 && o2stuffs.size() != 0) {
-					return -1;
-				}
-				if (o1stuffs.size() != 0 && o2stuffs.size() == 0) {
-					return 1;
-				}
-				if (o1stuffs.size() == 0 && o2stuffs.size() == 0) {
-					return 0;
-				}
-				// both lists have contents
-				final Stuff o1earliest = earliestStuff(o1stuffs);
-				final Stuff o2earliest = earliestStuff(o2stuffs);
-				return o1earliest.when.compareTo(o2earliest.when);
-			}
-
-			// precondition: stuffs has at least one entry
-			private Stuff earliestStuff(final List<Stuff> stuffs) {
-				Stuff earliest = stuffs.get(0);
-				for (int i = 1; i < stuffs.size(); i++) {
-					if (stuffs.get(i).when.before(earliest.when)) {
-						earliest = stuffs.get(i);
-					}
-				}
-				return earliest;
-			}});
-		return callsigns;
+	// the entries marked tweeted are added to marked, to be marked as published by the caller
+	public static String joinWhileStillFitsAndMarkTweeted(final int remaining, final List<Stuff> possiblyUntweetedStuff, final List<Stuff> marked) {
+		final StringBuilder sb = new StringBuilder();
+		appendWhileStillFitsAndMarkTweeted(sb, remaining, filterUntweetedAndSortOnTime(possiblyUntweetedStuff), marked);
+		return sb.toString();
 	}
 
-	public static String joinWhileStillFitsAndMarkTweeted(final int remaining, final List<Stuff> possiblyUntweetedStuff) {
-//		System.out.println("remaining " + remaining);
-//		for (final Stuff s : possiblyUntweetedStuff) {
-//			System.out.println("possibly untweeted " + s + " tweeted: " + s.tweeted);
-//		}
-		final List<Stuff> untweetedStuff = filterUntweetedAndSortOnTime(possiblyUntweetedStuff);
-		for (int sliceSize=untweetedStuff.size(); sliceSize > 0; sliceSize--) {
-			final List<Stuff> subList = untweetedStuff.subList(0, sliceSize);
-			final String joined = StringUtils.join(subList, ", ");
-//			System.out.println("joined length " + joined.length() + "=" + joined);
-			if (joined.length() <= remaining) {
-				// all these entries could fit. mark them
-//				System.out.println("it fits!");
-				for (final Stuff mark: subList) {
-					LOGGER.debug("marking " + mark + " as tweeted");
-					mark.tweeted = true;
-					mark.markPublished();
-				}
-				return joined;
-			} else {
-//				System.out.println("exceeded");
+	// Appends the longest prefix of the untweeted entries, which must be in time
+	// order, whose joined length fits in remaining. Each entry's text is formed
+	// once, and it stops at the first that doesn't fit, so this is linear in the
+	// number appended. Returns that number.
+	private static int appendWhileStillFitsAndMarkTweeted(final StringBuilder sb, final int remaining, final Iterable<Stuff> untweetedStuff, final List<Stuff> marked) {
+		int length = 0;
+		int count = 0;
+		for (final Stuff stuff : untweetedStuff) {
+			final String text = stuff.toString();
+			final int joinedLength = length + (count == 0 ? 0 : 2) + text.length();
+			if (joinedLength > remaining) {
+				break;
+			}
+			if (count != 0) {
+				sb.append(", ");
 			}
+			sb.append(text);
+			length = joinedLength;
+			count++;
+			LOGGER.debug("marking " + stuff + " as tweeted");
+			stuff.tweeted = true;
+			marked.add(stuff);
 		}
-		return "";
+		return count;
 	}
 
 	private static List<Stuff> filterUntweetedAndSortOnTime(final List<Stuff> entry) {
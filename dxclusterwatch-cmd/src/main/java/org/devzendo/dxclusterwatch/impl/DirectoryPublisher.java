@@ -0,0 +1,50 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+
+/**
+ * Copies the files from the site repo into a plain directory, such as a web
+ * server's document root. Each file is copied alongside its destination, then
+ * moved over it, so readers never see a partially copied file.
+ */
+public class DirectoryPublisher implements Publisher {
+	private final File siteRepoPath;
+	private final File publishDirectory;
+
+	public DirectoryPublisher(final File siteRepoPath, final File publishDirectory) {
+		this.siteRepoPath = siteRepoPath;
+		this.publishDirectory = publishDirectory;
+	}
+
+	@Override
+	public void publish(final Set<String> fileNames) {
+		for (final String fileName : fileNames) {
+			final Path source = new File(siteRepoPath, fileName).toPath();
+			final Path destination = new File(publishDirectory, fileName).toPath();
+			final Path temp = new File(publishDirectory, fileName + ".tmp").toPath();
+			try {
+				Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+				try {
+					Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (final AtomicMoveNotSupportedException e) {
+					Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not copy " + source + " to " + destination + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -0,0 +1,98 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.BranchTrackingStatus;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits the files to the site repo, and pushes it to its default remote,
+ * in-process with JGit, so no git executable is started per publish. The
+ * repository is opened once, and kept open until closed.
+ *
+ * It pushes whenever the branch is ahead of the remote, not only after a new
+ * commit, so a commit whose push failed is pushed by the next publish, even
+ * if that has nothing new to commit.
+ */
+public class GitPublisher implements Publisher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GitPublisher.class);
+
+	private final Git git;
+	private final SimpleDateFormat dateFormatGmt;
+
+	public GitPublisher(final File siteRepoPath) {
+		try {
+			git = Git.open(siteRepoPath);
+		} catch (final IOException e) {
+			throw new RuntimeException("Can't open git repository at " + siteRepoPath + ": " + e.getMessage(), e);
+		}
+		dateFormatGmt = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
+		dateFormatGmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	@Override
+	public void publish(final Set<String> fileNames) {
+		try {
+			final AddCommand add = git.add();
+			for (final String fileName : fileNames) {
+				add.addFilepattern(fileName);
+			}
+			add.call();
+			final Status status = git.status().call();
+			if (status.getAdded().isEmpty() && status.getChanged().isEmpty()) {
+				LOGGER.debug("Nothing changed; not committing");
+			} else {
+				git.commit().setMessage("updated at " + dateFormatGmt.format(new Date())).call();
+			}
+			if (!isAheadOfRemote()) {
+				LOGGER.debug("Nothing to push");
+				return;
+			}
+			for (final PushResult result : git.push().call()) {
+				for (final RemoteRefUpdate update : result.getRemoteUpdates()) {
+					if (update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+						throw new RuntimeException("Push of " + update.getRemoteName() + " failed: " + update.getStatus()
+								+ (update.getMessage() == null ? "" : " " + update.getMessage()));
+					}
+				}
+			}
+		} catch (final GitAPIException | IOException e) {
+			throw new RuntimeException("Could not commit and push: " + e.getMessage(), e);
+		}
+	}
+
+	private boolean isAheadOfRemote() throws IOException {
+		final Repository repository = git.getRepository();
+		final String branch = repository.getBranch();
+		final BranchTrackingStatus tracking = BranchTrackingStatus.of(repository, branch);
+		if (tracking != null) {
+			return tracking.getAheadCount() > 0;
+		}
+		// No upstream configured, as in a clone of an empty repository; compare
+		// with the default remote's branch of the same name.
+		final ObjectId head = repository.resolve(Constants.HEAD);
+		final ObjectId remoteHead = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch);
+		return head != null && !head.equals(remoteHead);
+	}
+
+	@Override
+	public void close() {
+		git.close();
+	}
+}
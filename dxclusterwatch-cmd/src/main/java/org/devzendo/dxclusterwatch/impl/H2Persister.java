@@ -4,170 +4,525 @@ import java.io.File;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
 
 import org.apache.commons.lang3.StringUtils;
 import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
 import org.devzendo.dxclusterwatch.cmd.Persister;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
 import org.h2.engine.ExistenceChecker;
+import org.h2.jdbcx.JdbcConnectionPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
-import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
-import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
+// Used by several of the Controller's stages at once, and the retention job.
+//
+// With a single connection, every statement is serialised, so that one
+// stage's statements can't join another's transaction. With a pool of
+// connections, each call has a connection of its own, and as H2's MVStore
+// gives each transaction a consistent snapshot (MVCC), reads run alongside
+// writes and each other. Writes are still serialised, since persisting checks
+// for existing records before inserting them.
+//
+// If given a SpotRingBuffer, it's filled with the newest records when the
+// database is opened, and each new record is added to it as it's stored.
 public class H2Persister implements Persister {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(H2Persister.class);
+	// Upper bound on the number of ? placeholders in an existence probe's IN list
+	private static final int MAX_IN_LIST_SIZE = 500;
+
+	// Each migration takes the schema from the version before it to its own
+	// version: its index in this array, plus one. Add new migrations to the
+	// end; never change one that's been released. H2 commits DDL as it runs
+	// it, so each statement must be safe to run again, should the migration
+	// fail before its version is recorded.
+	private static final String[][] MIGRATIONS = new String[][] {
+		// 1: index the untweeted records, and all records, by time
+		{
+			"CREATE INDEX IF NOT EXISTS SpotsTweetedWhen ON Spots(tweeted, when)",
+			"CREATE INDEX IF NOT EXISTS SpotsWhen ON Spots(when)",
+		},
+	};
+	static final int SCHEMA_VERSION = MIGRATIONS.length;
+	// The table as first released, before any migration; package visible so it can be created without them
+	static final String CREATE_SPOTS_SQL = "CREATE TABLE Spots(nr INT, dxcall VARCHAR(25), call VARCHAR(25), when TIMESTAMP, freq VARCHAR(25), comment VARCHAR(128), tweeted BOOLEAN, PRIMARY KEY(nr))";
+
+	// The queries on when and tweeted; package visible so their plans can be checked
+	static final String NEXT_RECORD_TO_TWEET_SQL = "SELECT TOP 1 * FROM Spots WHERE tweeted = FALSE ORDER BY when";
+	static final String RECORDS_BETWEEN_SQL = "SELECT * FROM Spots WHERE when BETWEEN ? AND ? ORDER BY when DESC";
+	static final String UNTWEETED_RECORDS_SQL = "SELECT * FROM Spots WHERE tweeted = FALSE ORDER BY when";
+	static final String EARLIEST_TIME_RECORD_SQL = "SELECT TOP 1 * FROM Spots ORDER BY when ASC";
 
 	private final int maxListingEntries;
 	private final File dbFile;
-	private final SimpleJdbcTemplate template;
-	private final SingleConnectionDataSource dataSource;
+	private final String dbURL;
+	private final int connections;
+	// replaced when the database is reopened after compaction
+	private volatile DataSource dataSource;
+	private volatile SimpleJdbcTemplate template;
+	private volatile TransactionTemplate transactionTemplate;
 	private final RowMapper<ClusterRecord> rowMapper;
+	private final SymbolTable symbolTable = SymbolTable.shared();
+	private final SpotRingBuffer recentSpots; // may be null
 
+	// Statements hold the read lock; closing and compacting, which replace the
+	// connections, hold the write lock.
+	private final ReentrantReadWriteLock access = new ReentrantReadWriteLock();
+	private final ReentrantLock writing = new ReentrantLock();
 
 	public H2Persister(final File storeDir, final int maxListingEntries) {
+		this(storeDir, maxListingEntries, 1);
+	}
+
+	/**
+	 * @param connections the size of the connection pool; with 1, a single
+	 * connection is shared, and all statements are serialised
+	 */
+	public H2Persister(final File storeDir, final int maxListingEntries, final int connections) {
+		this(storeDir, maxListingEntries, connections, null);
+	}
+
+	/**
+	 * @param recentSpots filled with the newest records, then added to as
+	 * records are stored; may be null
+	 */
+	public H2Persister(final File storeDir, final int maxListingEntries, final int connections, final SpotRingBuffer recentSpots) {
 		this.maxListingEntries = maxListingEntries;
+		this.connections = connections;
+		this.recentSpots = recentSpots;
 		LOGGER.debug("Limiting listing to {} entries", maxListingEntries);
 		dbFile = new File(storeDir, "dxclusterwatch");
 		final boolean needToCreate = !exists();
-		final String dbURL = "jdbc:h2:" + dbFile.getAbsolutePath();
-		LOGGER.debug("Opening database at {}", dbFile.getAbsolutePath());
-		dataSource = new SingleConnectionDataSource(dbURL, "sa", "", false);
-		template = new SimpleJdbcTemplate(dataSource);
+		dbURL = "jdbc:h2:" + dbFile.getAbsolutePath();
+		LOGGER.debug("Opening database at {} with {} connection(s)", dbFile.getAbsolutePath(), connections);
+		openDataSource();
 		if (needToCreate) {
 			LOGGER.debug("Database not initialised; creating tables...");
 			create();
 		} else {
 			LOGGER.debug("Database open");
 		}
+		migrate();
+		if (connections > 1 && !"TRUE".equalsIgnoreCase(setting("MVCC"))) {
+			LOGGER.warn("Database is not using MVCC; reads will wait for writes");
+		}
 		rowMapper = new RowMapper<ClusterRecord>() {
 			@Override
 			public ClusterRecord mapRow(final ResultSet rs, final int rowNum) throws SQLException {
 				final int nr = rs.getInt("nr");
-				final String dxcall = rs.getString("dxcall");
-				final String call = rs.getString("call");
+				final String dxcall = symbolTable.intern(rs.getString("dxcall"));
+				final String call = symbolTable.intern(rs.getString("call"));
 				final Timestamp when = rs.getTimestamp("when");
 				final String freq = rs.getString("freq");
 				final String comment = rs.getString("comment");
 				return ClusterRecord.dbRecord(nr, dxcall, call, when, freq, comment);
 			}
 		};
+		if (recentSpots != null) {
+			fillRecentSpots();
+		}
+	}
 
+	// with the newest records, oldest first
+	private void fillRecentSpots() {
+		final String sql = "SELECT TOP " + recentSpots.getCapacity() + " * FROM Spots ORDER BY when DESC";
+		final List<ClusterRecord> newest = new ArrayList<>(template.query(sql, rowMapper));
+		Collections.reverse(newest);
+		recentSpots.addAll(newest);
+		LOGGER.debug("{} recent spots read", newest.size());
 	}
 
 	private boolean exists() {
 		return ExistenceChecker.exists(dbFile.getAbsolutePath());
 	}
 
+	private void openDataSource() {
+		if (connections > 1) {
+			final JdbcConnectionPool pool = JdbcConnectionPool.create(dbURL, "sa", "");
+			pool.setMaxConnections(connections);
+			dataSource = pool;
+		} else {
+			dataSource = new SingleConnectionDataSource(dbURL, "sa", "", false);
+		}
+		template = new SimpleJdbcTemplate(dataSource);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+	}
+
+	private void closeDataSource() {
+		if (dataSource instanceof JdbcConnectionPool) {
+			((JdbcConnectionPool) dataSource).dispose();
+		} else {
+			((SingleConnectionDataSource) dataSource).destroy();
+		}
+	}
+
+	private String setting(final String name) {
+		final List<String> values = template.getJdbcOperations().queryForList("SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = ?", String.class, name);
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	private void beginRead() {
+		access.readLock().lock();
+		if (connections <= 1) {
+			writing.lock();
+		}
+	}
+
+	private void endRead() {
+		if (connections <= 1) {
+			writing.unlock();
+		}
+		access.readLock().unlock();
+	}
+
+	private void beginWrite() {
+		access.readLock().lock();
+		writing.lock();
+	}
+
+	private void endWrite() {
+		writing.unlock();
+		access.readLock().unlock();
+	}
+
 	private void create() {
 		LOGGER.info("Creating database...");
 		final String[] ddls = new String[] {
-			"CREATE TABLE Spots(nr INT, dxcall VARCHAR(25), call VARCHAR(25), when TIMESTAMP, freq VARCHAR(25), comment VARCHAR(128), tweeted BOOLEAN, PRIMARY KEY(nr))",
+			CREATE_SPOTS_SQL,
 		};
 		for (final String ddl : ddls) {
 			template.getJdbcOperations().execute(ddl);
 		}
 	}
 
+	// Databases created before versioning have no SchemaVersion table; they're at version 0.
+	private void migrate() {
+		final JdbcOperations jdbc = template.getJdbcOperations();
+		jdbc.execute("CREATE TABLE IF NOT EXISTS SchemaVersion(version INT)");
+		if (jdbc.queryForInt("SELECT COUNT(*) FROM SchemaVersion") == 0) {
+			jdbc.update("INSERT INTO SchemaVersion (version) VALUES (0)");
+		}
+		final int version = getSchemaVersion();
+		if (version > SCHEMA_VERSION) {
+			throw new IllegalStateException("Database schema version " + version + " is newer than this version of dxclusterwatch supports (" + SCHEMA_VERSION + ")");
+		}
+		for (int from = version; from < SCHEMA_VERSION; from++) {
+			final int to = from + 1;
+			LOGGER.info("Migrating database schema from version {} to {}...", from, to);
+			final long start = System.currentTimeMillis();
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				@Override
+				public Object doInTransaction(final TransactionStatus status) {
+					for (final String ddl : MIGRATIONS[to - 1]) {
+						jdbc.execute(ddl);
+					}
+					jdbc.update("UPDATE SchemaVersion SET version = ?", to);
+					return null;
+				}});
+			LOGGER.info("Migrated to version {} in {} ms", to, System.currentTimeMillis() - start);
+		}
+	}
+
+	int getSchemaVersion() {
+		beginRead();
+		try {
+			return template.getJdbcOperations().queryForInt("SELECT version FROM SchemaVersion");
+		} finally {
+			endRead();
+		}
+	}
+
 	@Override
-	public int persistRecords(final ClusterRecord[] records) {
-		int newRecords = 0;
+	public List<ClusterRecord> persistRecords(final ClusterRecord[] records) {
+		beginWrite();
+		try {
+			final List<ClusterRecord> newRecords = transactionTemplate.execute(new TransactionCallback<List<ClusterRecord>>() {
+				@Override
+				public List<ClusterRecord> doInTransaction(final TransactionStatus status) {
+					return storeRecords(filterNewRecords(records));
+				}});
+			LOGGER.info("{} records persisted, {} new", records.length, newRecords.size());
+			// still holding the write lock, so they're added in the order they're stored
+			if (recentSpots != null) {
+				recentSpots.addAll(newRecords);
+			}
+			return newRecords;
+		} finally {
+			endWrite();
+		}
+	}
+
+	// Records whose nr is not already stored, and not repeated earlier in the
+	// same array; a single existence probe per MAX_IN_LIST_SIZE records.
+	private List<ClusterRecord> filterNewRecords(final ClusterRecord[] records) {
+		final Set<Integer> knownNrs = existingNrs(records);
+		final List<ClusterRecord> newRecords = new ArrayList<>();
 		for (final ClusterRecord record : records) {
-			if (!recordExists(record)) {
-				newRecords++;
-				storeRecord(record);
+			if (knownNrs.add(Integer.parseInt(record.getNr()))) {
+				newRecords.add(record);
 			}
 		}
-		LOGGER.info("{} records persisted, {} new", records.length, newRecords);
 		return newRecords;
 	}
 
-	private void storeRecord(final ClusterRecord record) {
-		LOGGER.debug("Storing record {}", record.toDbString());
-		final String sql = "INSERT INTO Spots (nr, dxcall, call, when, freq, comment, tweeted) VALUES (?, ?, ?, ?, ?, ?, ?)";
-		template.getJdbcOperations().update(
-				sql, 
-				Integer.parseInt(record.getNr()), 
+	private Set<Integer> existingNrs(final ClusterRecord[] records) {
+		final Set<Integer> existing = new HashSet<>();
+		for (int from = 0; from < records.length; from += MAX_IN_LIST_SIZE) {
+			final int to = Math.min(records.length, from + MAX_IN_LIST_SIZE);
+			final Object[] nrs = new Object[to - from];
+			for (int i = from; i < to; i++) {
+				nrs[i - from] = Integer.parseInt(records[i].getNr());
+			}
+			final String sql = "SELECT nr FROM Spots WHERE nr IN (" + placeholders(nrs.length) + ")";
+			existing.addAll(template.getJdbcOperations().queryForList(sql, Integer.class, nrs));
+		}
+		LOGGER.debug("{} of {} records already exist", existing.size(), records.length);
+		return existing;
+	}
+
+	private static String placeholders(final int count) {
+		final StringBuilder sb = new StringBuilder(count * 3);
+		for (int i = 0; i < count; i++) {
+			if (i != 0) {
+				sb.append(", ");
+			}
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+
+	// returns the records as they'd be read back from the database
+	private List<ClusterRecord> storeRecords(final List<ClusterRecord> records) {
+		final List<ClusterRecord> stored = new ArrayList<>(records.size());
+		if (records.isEmpty()) {
+			return stored;
+		}
+		final List<Object[]> batchArgs = new ArrayList<>(records.size());
+		for (final ClusterRecord record : records) {
+			LOGGER.debug("Storing record {}", record.toDbString());
+			final int nr = Integer.parseInt(record.getNr());
+			final Timestamp when = toTimestamp(record);
+			batchArgs.add(new Object[] {
+				nr, 
 				StringUtils.defaultString(record.getDxcall()),
 				StringUtils.defaultString(record.getCall()),
-				StringUtils.defaultString(record.getTime()),
+				when,
 				StringUtils.defaultString(record.getFreq()),
 				StringUtils.defaultString(record.getComment()),
-				false);
+				false });
+			stored.add(when == null ? record : ClusterRecord.dbRecord(nr, record.getDxcall(), record.getCall(), when, record.getFreq(), record.getComment()));
+		}
+		final String sql = "INSERT INTO Spots (nr, dxcall, call, when, freq, comment, tweeted) VALUES (?, ?, ?, ?, ?, ?, ?)";
+		template.batchUpdate(sql, batchArgs);
+		return stored;
 	}
 
-	private boolean recordExists(final ClusterRecord record) {
-		final int nr = Integer.parseInt(record.getNr());
-		LOGGER.debug("Does record {} exist?", nr);
-		final boolean exists = template.queryForInt("SELECT COUNT(*) FROM Spots WHERE nr = ?", nr) == 1;
-		LOGGER.debug("Record {} {}", nr, exists ? "exists" : "does not exist");
-		return exists;
+	// Records read from the feed only have their time as a String
+	static Timestamp toTimestamp(final ClusterRecord record) {
+		if (record.getTimeAsTimestamp() != null) {
+			return record.getTimeAsTimestamp();
+		}
+		final String time = StringUtils.trimToNull(record.getTime());
+		return time == null ? null : Timestamp.valueOf(time);
 	}
 
 	@Override
 	public ClusterRecord getNextRecordToTweet() {
-		final String sql = "SELECT TOP 1 * FROM Spots WHERE tweeted = FALSE ORDER BY when";
+		beginRead();
 		try {
-			return template.queryForObject(sql, rowMapper);
+			return template.queryForObject(NEXT_RECORD_TO_TWEET_SQL, rowMapper);
 		} catch (final IncorrectResultSizeDataAccessException e) {
 			return null;
+		} finally {
+			endRead();
 		}
 	}
 
 	@Override
 	public void markTweeted(final ClusterRecord tweetedRecord) {
-		final int nr = Integer.parseInt(tweetedRecord.getNr());
-		LOGGER.debug("Marking record #{} as tweeted", nr);
-		if (recordExists(tweetedRecord)) {
-			final String sql = "UPDATE Spots SET tweeted = TRUE WHERE nr = ?";
-			template.update(sql, nr);
-		} else {
-			LOGGER.warn("Record #{} does not exist to mark as tweeted", nr);
+		markTweeted(Collections.singletonList(tweetedRecord));
+	}
+
+	@Override
+	public void markTweeted(final Collection<ClusterRecord> tweetedRecords) {
+		if (tweetedRecords.isEmpty()) {
+			return;
+		}
+		beginWrite();
+		try {
+			final List<Object> nrs = new ArrayList<>(tweetedRecords.size());
+			for (final ClusterRecord record : tweetedRecords) {
+				nrs.add(Integer.parseInt(record.getNr()));
+			}
+			LOGGER.debug("Marking records {} as tweeted", nrs);
+			final int updated = transactionTemplate.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(final TransactionStatus status) {
+					int updated = 0;
+					for (int from = 0; from < nrs.size(); from += MAX_IN_LIST_SIZE) {
+						final List<Object> chunk = nrs.subList(from, Math.min(nrs.size(), from + MAX_IN_LIST_SIZE));
+						final String sql = "UPDATE Spots SET tweeted = TRUE WHERE nr IN (" + placeholders(chunk.size()) + ")";
+						updated += template.update(sql, chunk.toArray());
+					}
+					return updated;
+				}});
+			if (updated != nrs.size()) {
+				LOGGER.warn("Only {} of {} records exist to mark as tweeted", updated, nrs.size());
+			}
+		} finally {
+			endWrite();
 		}
 	}
 
 	@Override
 	public void close() {
 		LOGGER.debug("Closing db");
+		access.writeLock().lock();
 		try {
-			 DataSourceUtils.getConnection(dataSource).close();
-		} catch (CannotGetJdbcConnectionException | SQLException e) {
+			closeDataSource();
+		} catch (final RuntimeException e) {
 			LOGGER.warn("Failed to close db: {}", e.getMessage());
+		} finally {
+			access.writeLock().unlock();
 		}
 	}
 
 	@Override
 	public List<ClusterRecord> getRecords() {
-		final String sql = "SELECT TOP " + maxListingEntries + " * FROM Spots ORDER BY when DESC";
-		return template.query(sql, rowMapper);
+		beginRead();
+		try {
+			final String sql = "SELECT TOP " + maxListingEntries + " * FROM Spots ORDER BY when DESC";
+			return template.query(sql, rowMapper);
+		} finally {
+			endRead();
+		}
 	}
 
 	@Override
 	public List<ClusterRecord> getRecordsBetween(final Timestamp start, final Timestamp end) {
-		final String sql = "SELECT * FROM Spots WHERE when BETWEEN ? AND ? ORDER BY when DESC";
-		return template.query(sql, rowMapper, start.toString(), end.toString());
+		beginRead();
+		try {
+			return template.query(RECORDS_BETWEEN_SQL, rowMapper, start, end);
+		} finally {
+			endRead();
+		}
 	}
 
 	@Override
 	public List<ClusterRecord> getUntweetedRecords() {
-		final String sql = "SELECT * FROM Spots WHERE tweeted = FALSE ORDER BY when";
-		return template.query(sql, rowMapper);
+		beginRead();
+		try {
+			return template.query(UNTWEETED_RECORDS_SQL, rowMapper);
+		} finally {
+			endRead();
+		}
 	}
 
 	@Override
 	public Timestamp getEarliestTimeRecord() {
-		final String sql = "SELECT TOP 1 * FROM Spots ORDER BY when ASC";
+		beginRead();
 		try {
-			final ClusterRecord record = template.queryForObject(sql, rowMapper);
+			final ClusterRecord record = template.queryForObject(EARLIEST_TIME_RECORD_SQL, rowMapper);
 			return record != null ? record.getTimeAsTimestamp() : null;
 		} catch (final EmptyResultDataAccessException empty) {
 			return null;
+		} finally {
+			endRead();
+		}
+	}
+
+	@Override
+	public Timestamp getTimeOfNewest(final int count) {
+		final String sql = "SELECT when FROM Spots ORDER BY when DESC LIMIT 1 OFFSET ?";
+		beginRead();
+		try {
+			return template.queryForObject(sql, Timestamp.class, count - 1);
+		} catch (final EmptyResultDataAccessException empty) {
+			return null;
+		} finally {
+			endRead();
+		}
+	}
+
+	@Override
+	public List<ClusterRecord> getTweetedRecordsBefore(final Timestamp before, final int limit) {
+		beginRead();
+		try {
+			final String sql = "SELECT * FROM Spots WHERE tweeted = TRUE AND when < ? ORDER BY when LIMIT ?";
+			return template.query(sql, rowMapper, before, limit);
+		} finally {
+			endRead();
+		}
+	}
+
+	@Override
+	public int deleteRecords(final Collection<ClusterRecord> records) {
+		return deleteRecords(records, null);
+	}
+
+	@Override
+	public int deleteRecords(final Collection<ClusterRecord> records, final Runnable beforeCommit) {
+		beginWrite();
+		try {
+			final List<Object> nrs = new ArrayList<>(records.size());
+			for (final ClusterRecord record : records) {
+				nrs.add(Integer.parseInt(record.getNr()));
+			}
+			final int deleted = transactionTemplate.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(final TransactionStatus status) {
+					int deleted = 0;
+					for (int from = 0; from < nrs.size(); from += MAX_IN_LIST_SIZE) {
+						final List<Object> chunk = nrs.subList(from, Math.min(nrs.size(), from + MAX_IN_LIST_SIZE));
+						final String sql = "DELETE FROM Spots WHERE nr IN (" + placeholders(chunk.size()) + ")";
+						deleted += template.update(sql, chunk.toArray());
+					}
+					if (beforeCommit != null) {
+						beforeCommit.run();
+					}
+					return deleted;
+				}});
+			LOGGER.debug("{} records deleted", deleted);
+			return deleted;
+		} finally {
+			endWrite();
+		}
+	}
+
+	// H2 only rewrites the file fully on shutdown, so the connections are
+	// reopened afterwards.
+	@Override
+	public void compact() {
+		LOGGER.info("Compacting database...");
+		final long start = System.currentTimeMillis();
+		access.writeLock().lock();
+		try {
+			template.getJdbcOperations().execute("SHUTDOWN COMPACT");
+			closeDataSource();
+			openDataSource();
+		} finally {
+			access.writeLock().unlock();
 		}
+		LOGGER.info("Database compacted in {} ms", System.currentTimeMillis() - start);
 	}
 }
@@ -0,0 +1,46 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.devzendo.dxclusterwatch.util.Execute;
+
+/**
+ * Commits the files to the site repo, and pushes it, by running hg.
+ */
+public class HgPublisher implements Publisher {
+	private final File siteRepoPath;
+	private final String hg;
+	private final SimpleDateFormat dateFormatGmt;
+
+	public HgPublisher(final Config config) {
+		siteRepoPath = config.getSiteRepoPath();
+		hg = config.getHgExecutablePath().getAbsolutePath();
+		dateFormatGmt = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss");
+		dateFormatGmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	@Override
+	public void publish(final Set<String> fileNames) {
+		final List<String> commit = new ArrayList<>();
+		commit.add(hg);
+		commit.add("commit");
+		commit.add("-m");
+		commit.add("'updated at " + dateFormatGmt.format(new Date()) + "'");
+		commit.addAll(fileNames);
+		new Execute(siteRepoPath, commit.toArray(new String[commit.size()])).run();
+		new Execute(siteRepoPath, hg, "push").run();
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
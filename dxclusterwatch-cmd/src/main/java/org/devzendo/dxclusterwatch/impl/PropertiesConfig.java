@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -11,6 +13,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.PublisherType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,147 +21,269 @@ public class PropertiesConfig implements Config {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PropertiesConfig.class);
 	private static final Pattern TRUE_PATTERN = Pattern.compile("^(true|yes)$", Pattern.CASE_INSENSITIVE);
 	private static final Pattern FALSE_PATTERN = Pattern.compile("^(false|no)$", Pattern.CASE_INSENSITIVE);
+	private static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+	private static final int DEFAULT_READ_TIMEOUT_SECONDS = 30;
+	private static final int DEFAULT_MAX_CONNECTIONS = 2;
+	private static final long DEFAULT_CHECK_INTERVAL_MS = 1000L;
+	private static final PublisherType DEFAULT_PUBLISHER = PublisherType.HG;
+	private static final int DEFAULT_PUBLISH_WINDOW_SECONDS = 60;
+	private static final int DEFAULT_PAGE_MIN_INTERVAL_SECONDS = 120;
+	private static final int DEFAULT_PAGE_MAX_STALENESS_SECONDS = 600;
+	private static final int DEFAULT_COMPACT_INTERVAL_HOURS = 24;
+	private static final int DEFAULT_DATABASE_CONNECTIONS = 4;
 
 	private final File prefsFile;
+	private final long checkIntervalMillis;
 
-	private long lastModificationTime = 0L;
-	private Set<String> callsigns;
-	private File siteRepoPath;
-	private int pollMinutes;
-	private int tweetSeconds;
-	private File hgExecutablePath;
-	private String consumerKey;
-	private String consumerSecret;
-	private String accessToken;
-	private String accessSecret;
-	private int maxListingEntries;
-	private boolean enableFeedReading;
-	private boolean enablePageUpdating;
-	private boolean enableTweeting;
-	private URI serverURI;
+	// Replaced as a whole when the file changes, so readers always see a
+	// consistent configuration, without locking.
+	private volatile Snapshot snapshot;
+	private volatile long lastCheckMillis;
+	private long lastModificationTime = 0L; // guarded by this
+
+	/**
+	 * The configuration, as read from one version of the properties file.
+	 */
+	private static class Snapshot {
+		public final Set<String> callsigns;
+		public final File siteRepoPath;
+		public final int pollMinutes;
+		public final int tweetSeconds;
+		public final File hgExecutablePath;
+		public final String consumerKey;
+		public final String consumerSecret;
+		public final String accessToken;
+		public final String accessSecret;
+		public final int maxListingEntries;
+		public final boolean enableFeedReading;
+		public final boolean enablePageUpdating;
+		public final boolean enableTweeting;
+		public final URI serverURI;
+		public final int connectTimeoutSeconds;
+		public final int readTimeoutSeconds;
+		public final int maxConnections;
+		public final PublisherType publisher;
+		public final File publishDirectory;
+		public final int publishWindowSeconds;
+		public final int pageMinIntervalSeconds;
+		public final int pageMaxStalenessSeconds;
+		public final int retentionDays;
+		public final int retentionMaxRecords;
+		public final File archiveDirectory;
+		public final int compactIntervalHours;
+		public final int databaseConnections;
+
+		public Snapshot(final Properties properties) {
+			callsigns = Collections.unmodifiableSet(PropertiesConfig.getCallsigns(properties.getProperty("callsigns")));
+			siteRepoPath = mustBePath("siteRepoPath", properties.getProperty("siteRepoPath"));
+			pollMinutes = mustBeInteger("pollMinutes", properties.getProperty("pollMinutes"));
+			tweetSeconds = mustBeInteger("tweetSeconds", properties.getProperty("tweetSeconds"));
+			publisher = mayBePublisherType("publisher", properties.getProperty("publisher"), DEFAULT_PUBLISHER);
+			// only needed by the publisher that uses them
+			hgExecutablePath = publisher == PublisherType.HG ? mustBeExecutablePath("hgExecutablePath", properties.getProperty("hgExecutablePath")) : null;
+			publishDirectory = publisher == PublisherType.DIRECTORY ? mustBePath("publishDirectory", properties.getProperty("publishDirectory")) : null;
+			consumerKey = mustBeString("consumerKey", properties.getProperty("consumerKey"));
+			consumerSecret = mustBeString("consumerSecret", properties.getProperty("consumerSecret"));
+			accessToken = mustBeString("accessToken", properties.getProperty("accessToken"));
+			accessSecret = mustBeString("accessSecret", properties.getProperty("accessSecret"));
+			maxListingEntries = mustBeInteger("maxListingEntries", properties.getProperty("maxListingEntries"));
+			enableFeedReading = mustBeBoolean("enableFeedReading", properties.getProperty("enableFeedReading"));
+			enablePageUpdating = mustBeBoolean("enablePageUpdating", properties.getProperty("enablePageUpdating"));
+			enableTweeting = mustBeBoolean("enableTweeting", properties.getProperty("enableTweeting"));
+			serverURI = mustBeURI("serverURI", properties.getProperty("serverURI"));
+			connectTimeoutSeconds = mayBePositiveInteger("connectTimeoutSeconds", properties.getProperty("connectTimeoutSeconds"), DEFAULT_CONNECT_TIMEOUT_SECONDS);
+			readTimeoutSeconds = mayBePositiveInteger("readTimeoutSeconds", properties.getProperty("readTimeoutSeconds"), DEFAULT_READ_TIMEOUT_SECONDS);
+			maxConnections = mayBePositiveInteger("maxConnections", properties.getProperty("maxConnections"), DEFAULT_MAX_CONNECTIONS);
+			publishWindowSeconds = mayBeInteger("publishWindowSeconds", properties.getProperty("publishWindowSeconds"), DEFAULT_PUBLISH_WINDOW_SECONDS, 0);
+			pageMinIntervalSeconds = mayBeInteger("pageMinIntervalSeconds", properties.getProperty("pageMinIntervalSeconds"), DEFAULT_PAGE_MIN_INTERVAL_SECONDS, 0);
+			pageMaxStalenessSeconds = mayBeInteger("pageMaxStalenessSeconds", properties.getProperty("pageMaxStalenessSeconds"), Math.max(DEFAULT_PAGE_MAX_STALENESS_SECONDS, pageMinIntervalSeconds), pageMinIntervalSeconds);
+			retentionDays = mayBeInteger("retentionDays", properties.getProperty("retentionDays"), 0, 0);
+			retentionMaxRecords = mayBeInteger("retentionMaxRecords", properties.getProperty("retentionMaxRecords"), 0, 0);
+			archiveDirectory = mayBePath("archiveDirectory", properties.getProperty("archiveDirectory"));
+			compactIntervalHours = mayBeInteger("compactIntervalHours", properties.getProperty("compactIntervalHours"), DEFAULT_COMPACT_INTERVAL_HOURS, 0);
+			databaseConnections = mayBePositiveInteger("databaseConnections", properties.getProperty("databaseConnections"), DEFAULT_DATABASE_CONNECTIONS);
+		}
+	}
 
 	public static Logger getLogger() {
 		return LOGGER;
 	}
 
 	public PropertiesConfig(final File prefsFile) {
+		this(prefsFile, DEFAULT_CHECK_INTERVAL_MS);
+	}
+
+	/**
+	 * @param prefsFile the properties file
+	 * @param checkIntervalMillis the file is checked for changes at most this often
+	 */
+	public PropertiesConfig(final File prefsFile, final long checkIntervalMillis) {
 		this.prefsFile = prefsFile;
-		readConfigurationFromPropertiesFile();
+		this.checkIntervalMillis = checkIntervalMillis;
+		reloadIfModified();
 	}
 
 	@Override
-	public boolean hasChanged() {
+	public synchronized boolean hasChanged() {
 		final long currentModificationTime = prefsFile.lastModified();
 		return lastModificationTime != currentModificationTime;
 	}
 
 	@Override
 	public String getConsumerKey() {
-		readConfigurationFromPropertiesFile();
-		return consumerKey;
+		return current().consumerKey;
 	}
 
 	@Override
 	public String getConsumerSecret() {
-		readConfigurationFromPropertiesFile();
-		return consumerSecret;
+		return current().consumerSecret;
 	}
 
 	@Override
 	public String getAccessToken() {
-		readConfigurationFromPropertiesFile();
-		return accessToken;
+		return current().accessToken;
 	}
 
 	@Override
 	public String getAccessSecret() {
-		readConfigurationFromPropertiesFile();
-		return accessSecret;
+		return current().accessSecret;
 	}
 
 	@Override
 	public File getHgExecutablePath() {
-		readConfigurationFromPropertiesFile();
-		return hgExecutablePath;
+		return current().hgExecutablePath;
 	}
 
 	@Override
 	public File getSiteRepoPath() {
-		readConfigurationFromPropertiesFile();
-		return siteRepoPath;
+		return current().siteRepoPath;
 	}
 
 	@Override
 	public Set<String> getCallsigns() {
-		readConfigurationFromPropertiesFile();
-		return callsigns;
+		return current().callsigns;
 	}
 
 	@Override
 	public int getPollMinutes() {
-		readConfigurationFromPropertiesFile();
-		return pollMinutes;
+		return current().pollMinutes;
 	}
 
 	@Override
 	public int getTweetSeconds() {
-		readConfigurationFromPropertiesFile();
-		return tweetSeconds;
+		return current().tweetSeconds;
 	}
 
 	@Override
 	public int getMaxListingEntries() {
-		readConfigurationFromPropertiesFile();
-		return maxListingEntries;
+		return current().maxListingEntries;
 	}
 
 	@Override
 	public boolean isFeedReadingEnabled() {
-		readConfigurationFromPropertiesFile();
-		return enableFeedReading;
+		return current().enableFeedReading;
 	}
 
 	@Override
 	public boolean isPageUpdatingEnabled() {
-		readConfigurationFromPropertiesFile();
-		return enablePageUpdating;
+		return current().enablePageUpdating;
 	}
 
 	@Override
 	public boolean isTweetingEnabled() {
-		readConfigurationFromPropertiesFile();
-		return enableTweeting;
+		return current().enableTweeting;
 	}
 
 	@Override
 	public URI getServerURI() {
-		readConfigurationFromPropertiesFile();
-		return serverURI;
+		return current().serverURI;
+	}
+
+	@Override
+	public int getConnectTimeoutSeconds() {
+		return current().connectTimeoutSeconds;
+	}
+
+	@Override
+	public int getReadTimeoutSeconds() {
+		return current().readTimeoutSeconds;
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return current().maxConnections;
+	}
+
+	@Override
+	public PublisherType getPublisher() {
+		return current().publisher;
+	}
+
+	@Override
+	public File getPublishDirectory() {
+		return current().publishDirectory;
+	}
+
+	@Override
+	public int getPublishWindowSeconds() {
+		return current().publishWindowSeconds;
+	}
+
+	@Override
+	public int getPageMinIntervalSeconds() {
+		return current().pageMinIntervalSeconds;
+	}
+
+	@Override
+	public int getPageMaxStalenessSeconds() {
+		return current().pageMaxStalenessSeconds;
+	}
+
+	@Override
+	public int getRetentionDays() {
+		return current().retentionDays;
+	}
+
+	@Override
+	public int getRetentionMaxRecords() {
+		return current().retentionMaxRecords;
+	}
+
+	@Override
+	public File getArchiveDirectory() {
+		return current().archiveDirectory;
+	}
+
+	@Override
+	public int getCompactIntervalHours() {
+		return current().compactIntervalHours;
+	}
+
+	@Override
+	public int getDatabaseConnections() {
+		return current().databaseConnections;
+	}
+
+	// The current snapshot; the file is only checked for changes if it hasn't
+	// been checked for the check interval.
+	private Snapshot current() {
+		if (System.currentTimeMillis() - lastCheckMillis >= checkIntervalMillis) {
+			reloadIfModified();
+		}
+		return snapshot;
 	}
 
-	private void readConfigurationFromPropertiesFile() {
+	private synchronized void reloadIfModified() {
+		lastCheckMillis = System.currentTimeMillis();
 		final long currentModificationTime = prefsFile.lastModified();
 		if (lastModificationTime == currentModificationTime) {
 			return;
 		}
 		LOGGER.info("Reading configuration file " + prefsFile.getAbsolutePath());
+		// Not retried until the file changes again; if it's invalid, the
+		// previous snapshot remains in use.
 		lastModificationTime = currentModificationTime;
-		final Properties properties = loadProperties(prefsFile);
-		
-		callsigns = getCallsigns(properties.getProperty("callsigns"));		
-		siteRepoPath = mustBePath("siteRepoPath", properties.getProperty("siteRepoPath"));
-		pollMinutes = mustBeInteger("pollMinutes", properties.getProperty("pollMinutes"));
-		tweetSeconds = mustBeInteger("tweetSeconds", properties.getProperty("tweetSeconds"));
-		hgExecutablePath = mustBeExecutablePath("hgExecutablePath", properties.getProperty("hgExecutablePath"));
-		consumerKey = mustBeString("consumerKey", properties.getProperty("consumerKey"));
-		consumerSecret = mustBeString("consumerSecret", properties.getProperty("consumerSecret"));
-		accessToken = mustBeString("accessToken", properties.getProperty("accessToken"));
-		accessSecret = mustBeString("accessSecret", properties.getProperty("accessSecret"));
-		maxListingEntries = mustBeInteger("maxListingEntries", properties.getProperty("maxListingEntries"));
-		enableFeedReading = mustBeBoolean("enableFeedReading", properties.getProperty("enableFeedReading"));
-		enablePageUpdating = mustBeBoolean("enablePageUpdating", properties.getProperty("enablePageUpdating"));
-		enableTweeting = mustBeBoolean("enableTweeting", properties.getProperty("enableTweeting"));
-		serverURI = mustBeURI("serverURI", properties.getProperty("serverURI"));
+		snapshot = new Snapshot(loadProperties(prefsFile));
 	}
 
 	static String mustBeString(final String propertyName, final String value) {
@@ -169,6 +294,14 @@ public class PropertiesConfig implements Config {
 		return value.trim();
 	}
 
+	static File mayBePath(final String propertyName, final String path) {
+		if (path == null || path.trim().isEmpty()) {
+			LOGGER.debug("Property {} not given", propertyName);
+			return null;
+		}
+		return mustBePath(propertyName, path);
+	}
+
 	static File mustBePath(final String propertyName, final String path) {
 		LOGGER.debug("Checking property {} path {}", propertyName, path);
 		if (path == null || path.trim().isEmpty()) {
@@ -211,6 +344,34 @@ public class PropertiesConfig implements Config {
 		}
 	}
 
+	static int mayBePositiveInteger(final String propertyName, final String intText, final int defaultValue) {
+		return mayBeInteger(propertyName, intText, defaultValue, 1);
+	}
+
+	static int mayBeInteger(final String propertyName, final String intText, final int defaultValue, final int minimum) {
+		if (intText == null || intText.trim().isEmpty()) {
+			LOGGER.debug("Property {} not given, using default {}", propertyName, defaultValue);
+			return defaultValue;
+		}
+		final int value = mustBeInteger(propertyName, intText.trim());
+		if (value < minimum) {
+			throw new IllegalArgumentException("Property '" + propertyName + "' must be " + (minimum == 1 ? "positive" : "at least " + minimum) + ", not " + value);
+		}
+		return value;
+	}
+
+	static PublisherType mayBePublisherType(final String propertyName, final String typeText, final PublisherType defaultValue) {
+		if (typeText == null || typeText.trim().isEmpty()) {
+			LOGGER.debug("Property {} not given, using default {}", propertyName, defaultValue);
+			return defaultValue;
+		}
+		try {
+			return PublisherType.valueOf(typeText.trim().toUpperCase());
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException(typeText + " is not a publisher; use one of " + Arrays.toString(PublisherType.values()).toLowerCase());
+		}
+	}
+
 	static boolean mustBeBoolean(final String propertyName, final String boolText) {
 		LOGGER.debug("Checking property {} boolean {}", propertyName, boolText);
 		if (boolText == null || boolText.trim().isEmpty()) {
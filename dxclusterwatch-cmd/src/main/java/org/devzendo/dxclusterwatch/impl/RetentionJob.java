@@ -0,0 +1,155 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.Persister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prunes the records that are older than the retention period, or beyond
+ * the maximum number kept, every hour, on a thread of its own. Records are
+ * read, archived if configured, and deleted in batches, each a separate call
+ * on the Persister, so polling and page updates can interleave with a long
+ * prune. Once records have been pruned, the database is compacted, no more
+ * often than configured.
+ *
+ * Only records that have been tweeted are pruned: the activity watcher may
+ * still hold the others, and has yet to mark them, so they're kept, however
+ * old, until they're tweeted. The page is listed from the SpotRingBuffer,
+ * not the database, so records pruned while still among the newest listed
+ * stay on the page until newer ones take their place.
+ *
+ * The configuration is read on each run.
+ */
+public class RetentionJob {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RetentionJob.class);
+	static final int BATCH_SIZE = 1000;
+	private static final long RUN_INTERVAL_MINUTES = 60;
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	private static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+	private final Config config;
+	private final Persister persister;
+	private final ScheduledThreadPoolExecutor executor;
+
+	// only touched on the executor's thread
+	private long lastCompactMillis = System.currentTimeMillis();
+	private boolean prunedSinceCompact = false;
+
+	public RetentionJob(final Config config, final Persister persister) {
+		this.config = config;
+		this.persister = persister;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = defaultFactory.newThread(r);
+				thread.setName("retention");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	public void start() {
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runOnce();
+				} catch (final RuntimeException re) {
+					LOGGER.warn("Could not prune records: " + re.getMessage());
+				}
+			}
+		}, 1, RUN_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	// Stops after the batch in progress, if it's pruning
+	public void stop() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				LOGGER.debug("Waiting for pruning to finish");
+			}
+		} catch (final InterruptedException e) {
+			LOGGER.warn("Interrupted waiting for pruning to finish");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void runOnce() {
+		final int pruned = prune();
+		if (pruned > 0) {
+			prunedSinceCompact = true;
+		}
+		final int compactIntervalHours = config.getCompactIntervalHours();
+		final long now = System.currentTimeMillis();
+		if (prunedSinceCompact && compactIntervalHours > 0 && now - lastCompactMillis >= compactIntervalHours * HOUR_MILLIS) {
+			persister.compact();
+			lastCompactMillis = now;
+			prunedSinceCompact = false;
+		}
+	}
+
+	int prune() {
+		final Timestamp cutoff = cutoff();
+		if (cutoff == null) {
+			return 0;
+		}
+		final File archiveDirectory = config.getArchiveDirectory();
+		final SpotArchiver archiver = archiveDirectory == null ? null : new SpotArchiver(archiveDirectory);
+		LOGGER.debug("Pruning records before {}", cutoff);
+		int pruned = 0;
+		while (!executor.isShutdown()) {
+			final List<ClusterRecord> batch = persister.getTweetedRecordsBefore(cutoff, BATCH_SIZE);
+			if (batch.isEmpty()) {
+				break;
+			}
+			if (archiver != null) {
+				// if archiving fails, they're kept, and retried next run; if
+				// deleting fails, they're not archived twice
+				pruned += persister.deleteRecords(batch, new Runnable() {
+					@Override
+					public void run() {
+						archiver.archive(batch);
+					}});
+			} else {
+				pruned += persister.deleteRecords(batch);
+			}
+			if (batch.size() < BATCH_SIZE) {
+				break;
+			}
+		}
+		if (pruned > 0) {
+			LOGGER.info("Pruned {} records before {}", pruned, cutoff);
+		}
+		return pruned;
+	}
+
+	// The later of the age and count limits, or null if neither applies
+	private Timestamp cutoff() {
+		Timestamp cutoff = null;
+		final int retentionDays = config.getRetentionDays();
+		if (retentionDays > 0) {
+			cutoff = new Timestamp(System.currentTimeMillis() - retentionDays * DAY_MILLIS);
+		}
+		final int retentionMaxRecords = config.getRetentionMaxRecords();
+		if (retentionMaxRecords > 0) {
+			final Timestamp oldestKept = persister.getTimeOfNewest(retentionMaxRecords);
+			if (oldestKept != null && (cutoff == null || oldestKept.after(cutoff))) {
+				cutoff = oldestKept;
+			}
+		}
+		return cutoff;
+	}
+}
@@ -0,0 +1,108 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends records to gzip-compressed CSV files, one per day (GMT) of the
+ * records' times, named spots-yyyy-MM-dd.csv.gz. Each call appends a gzip
+ * member to the files; gzip and GZIPInputStream read the concatenated members
+ * as one file.
+ *
+ * A call archives all the records or none: if appending to any file fails,
+ * the files appended to are put back as they were.
+ */
+public class SpotArchiver {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SpotArchiver.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File archiveDirectory;
+	private final SimpleDateFormat dayFormatGmt;
+
+	public SpotArchiver(final File archiveDirectory) {
+		this.archiveDirectory = archiveDirectory;
+		dayFormatGmt = new SimpleDateFormat("yyyy-MM-dd");
+		dayFormatGmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	public void archive(final List<ClusterRecord> records) {
+		final Map<String, List<ClusterRecord>> byDay = new TreeMap<>();
+		for (final ClusterRecord record : records) {
+			final String day = record.getTimeAsTimestamp() == null ? "undated" : dayFormatGmt.format(record.getTimeAsTimestamp());
+			List<ClusterRecord> dayRecords = byDay.get(day);
+			if (dayRecords == null) {
+				dayRecords = new ArrayList<>();
+				byDay.put(day, dayRecords);
+			}
+			dayRecords.add(record);
+		}
+		// the length of each file before it was appended to; -1 if it was new
+		final Map<File, Long> appended = new LinkedHashMap<>();
+		for (final Map.Entry<String, List<ClusterRecord>> entry : byDay.entrySet()) {
+			final File file = new File(archiveDirectory, "spots-" + entry.getKey() + ".csv.gz");
+			appended.put(file, file.exists() ? file.length() : -1L);
+			try (final Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, true)), UTF8)) {
+				for (final ClusterRecord record : entry.getValue()) {
+					writer.write(toCsv(record));
+				}
+			} catch (final IOException e) {
+				restore(appended);
+				throw new RuntimeException("Could not archive to " + file + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static void restore(final Map<File, Long> appended) {
+		for (final Map.Entry<File, Long> entry : appended.entrySet()) {
+			final File file = entry.getKey();
+			final long length = entry.getValue();
+			if (length < 0) {
+				file.delete();
+				continue;
+			}
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(length);
+			} catch (final IOException e) {
+				LOGGER.warn("Could not restore " + file + " to " + length + " bytes: " + e.getMessage());
+			}
+		}
+	}
+
+	// nr,when,dxcall,call,freq,comment
+	static String toCsv(final ClusterRecord record) {
+		final StringBuilder sb = new StringBuilder(128);
+		sb.append(csvField(record.getNr())).append(',');
+		sb.append(csvField(record.getTime())).append(',');
+		sb.append(csvField(record.getDxcall())).append(',');
+		sb.append(csvField(record.getCall())).append(',');
+		sb.append(csvField(record.getFreq())).append(',');
+		sb.append(csvField(record.getComment())).append('\n');
+		return sb.toString();
+	}
+
+	private static String csvField(final String value) {
+		final String field = StringUtils.defaultString(value);
+		if (StringUtils.containsAny(field, ',', '"', '\n', '\r')) {
+			return '"' + field.replace("\"", "\"\"") + '"';
+		}
+		return field;
+	}
+}
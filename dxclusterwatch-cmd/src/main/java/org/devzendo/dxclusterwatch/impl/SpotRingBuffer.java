@@ -0,0 +1,285 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Spot;
+import org.devzendo.dxclusterwatch.util.SymbolTable;
+
+/**
+ * The most recently stored spots, in a fixed-capacity ring held off the heap
+ * in a direct ByteBuffer. The H2Persister adds spots as it stores them, and
+ * fills the ring from the database when opened; the page builder renders them
+ * from here rather than querying the database, or holding them itself.
+ *
+ * Spots are held in the order they're added, which needn't be their time
+ * order, as a poll can bring a spot older than some already stored. When
+ * full, adding a spot overwrites the one added longest ago. readNewestFirst
+ * visits them in time order.
+ *
+ * Each spot is encoded in a fixed-width slot: its nr, its time in millis
+ * (Spot.NO_TIME if it has none), then its freq, dxcall, call and comment,
+ * each as a length and that many chars, truncated to the width of their
+ * database columns.
+ *
+ * Every spot added is given the next sequence number. Readers remember the
+ * sequence they've read up to, and visit only the spots added since, through
+ * an Entry that decodes fields from the buffer as they're asked for, so a
+ * read with nothing new to visit creates no garbage.
+ *
+ * Thread safe: added to from the persist stage, read from the page stage.
+ */
+public class SpotRingBuffer {
+	// the widths of the Spots table's columns
+	private static final int FREQ_WIDTH = 25;
+	private static final int CALL_WIDTH = 25;
+	private static final int COMMENT_WIDTH = 128;
+
+	private static final int NR_OFFSET = 0;
+	private static final int TIME_OFFSET = NR_OFFSET + 4;
+	private static final int FREQ_OFFSET = TIME_OFFSET + 8;
+	private static final int DXCALL_OFFSET = FREQ_OFFSET + fieldSize(FREQ_WIDTH);
+	private static final int CALL_OFFSET = DXCALL_OFFSET + fieldSize(CALL_WIDTH);
+	private static final int COMMENT_OFFSET = CALL_OFFSET + fieldSize(CALL_WIDTH);
+	static final int SLOT_SIZE = COMMENT_OFFSET + fieldSize(COMMENT_WIDTH);
+
+	private final int capacity;
+	private final ByteBuffer buffer;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// the sequence of the next spot to be added; guarded by lock
+	private long sequence = 0;
+
+	public interface Visitor {
+		void visit(Entry entry);
+	}
+
+	/**
+	 * A view of one spot in the ring, only valid during the visit it's passed
+	 * to.
+	 */
+	public static final class Entry {
+		private final ByteBuffer buffer;
+		private final char[] chars = new char[COMMENT_WIDTH];
+		private long sequence;
+		private int offset;
+
+		private Entry(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public int getNr() {
+			return buffer.getInt(offset + NR_OFFSET);
+		}
+
+		// Spot.NO_TIME if the spot had none
+		public long getTimeMillis() {
+			return buffer.getLong(offset + TIME_OFFSET);
+		}
+
+		public String getFreq() {
+			return SymbolTable.shared().intern(chars, 0, readChars(offset + FREQ_OFFSET));
+		}
+
+		public String getDxcall() {
+			return SymbolTable.shared().intern(chars, 0, readChars(offset + DXCALL_OFFSET));
+		}
+
+		public String getCall() {
+			return SymbolTable.shared().intern(chars, 0, readChars(offset + CALL_OFFSET));
+		}
+
+		public String getComment() {
+			return new String(chars, 0, readChars(offset + COMMENT_OFFSET));
+		}
+
+		// As the persister would read it back from the database
+		public ClusterRecord toClusterRecord() {
+			final long timeMillis = getTimeMillis();
+			if (timeMillis != Spot.NO_TIME) {
+				return ClusterRecord.dbRecord(getNr(), getDxcall(), getCall(), new Timestamp(timeMillis), getFreq(), getComment());
+			}
+			final ClusterRecord record = new ClusterRecord();
+			record.setNr(Integer.toString(getNr()));
+			record.setDxcall(getDxcall());
+			record.setCall(getCall());
+			record.setTime("");
+			record.setFreq(getFreq());
+			record.setComment(getComment());
+			return record;
+		}
+
+		// into chars, returning the length
+		private int readChars(final int fieldOffset) {
+			final int length = buffer.getChar(fieldOffset);
+			for (int i = 0; i < length; i++) {
+				chars[i] = buffer.getChar(fieldOffset + 2 + 2 * i);
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * @param capacity the number of spots held
+	 */
+	public SpotRingBuffer(final int capacity) {
+		if (capacity < 1 || capacity > Integer.MAX_VALUE / SLOT_SIZE) {
+			throw new IllegalArgumentException("Capacity " + capacity + " must be between 1 and " + Integer.MAX_VALUE / SLOT_SIZE);
+		}
+		this.capacity = capacity;
+		buffer = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+	}
+
+	// a length, then that many chars
+	private static int fieldSize(final int width) {
+		return 2 + 2 * width;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// the number of spots ever added, and the sequence the next will be given
+	public long getSequence() {
+		lock.readLock().lock();
+		try {
+			return sequence;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return (int) Math.min(sequence, capacity);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the records in order, so the last is the newest.
+	 */
+	public void addAll(final Collection<ClusterRecord> records) {
+		if (records.isEmpty()) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			for (final ClusterRecord record : records) {
+				write(slotOffset(sequence++), record);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void write(final int offset, final ClusterRecord record) {
+		final Timestamp when = record.getTimeAsTimestamp();
+		buffer.putInt(offset + NR_OFFSET, Integer.parseInt(record.getNr()));
+		buffer.putLong(offset + TIME_OFFSET, when == null ? Spot.NO_TIME : when.getTime());
+		writeChars(offset + FREQ_OFFSET, FREQ_WIDTH, record.getFreq());
+		writeChars(offset + DXCALL_OFFSET, CALL_WIDTH, record.getDxcall());
+		writeChars(offset + CALL_OFFSET, CALL_WIDTH, record.getCall());
+		writeChars(offset + COMMENT_OFFSET, COMMENT_WIDTH, record.getComment());
+	}
+
+	// null is written as empty, as the persister stores it
+	private void writeChars(final int fieldOffset, final int width, final String value) {
+		final int length = value == null ? 0 : Math.min(value.length(), width);
+		buffer.putChar(fieldOffset, (char) length);
+		for (int i = 0; i < length; i++) {
+			buffer.putChar(fieldOffset + 2 + 2 * i, value.charAt(i));
+		}
+	}
+
+	private int slotOffset(final long slotSequence) {
+		return (int) (slotSequence % capacity) * SLOT_SIZE;
+	}
+
+	/**
+	 * Visits the spots added since fromSequence that are still held, oldest
+	 * first; those overwritten since are skipped. Adding waits until the
+	 * visits are done.
+	 *
+	 * @return the sequence to read from next time
+	 */
+	public long read(final long fromSequence, final Visitor visitor) {
+		lock.readLock().lock();
+		try {
+			final long oldest = Math.max(fromSequence, sequence - capacity);
+			if (oldest < sequence) {
+				final Entry entry = new Entry(buffer);
+				for (long s = oldest; s < sequence; s++) {
+					entry.sequence = s;
+					entry.offset = slotOffset(s);
+					visitor.visit(entry);
+				}
+			}
+			return sequence;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visits up to limit of the spots held, newest first by time; those with
+	 * no time come last, and of those at the same time, the last added comes
+	 * first. Adding waits until the visits are done.
+	 *
+	 * @return the number visited
+	 */
+	public int readNewestFirst(final int limit, final Visitor visitor) {
+		lock.readLock().lock();
+		try {
+			final long oldest = Math.max(0, sequence - capacity);
+			final int held = (int) (sequence - oldest);
+			final long[] times = new long[held];
+			final Integer[] newestFirst = new Integer[held];
+			for (int i = 0; i < held; i++) {
+				times[i] = buffer.getLong(slotOffset(oldest + i) + TIME_OFFSET);
+				newestFirst[i] = i;
+			}
+			Arrays.sort(newestFirst, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer o1, final Integer o2) {
+					final int byTime = Long.compare(times[o2], times[o1]);
+					return byTime != 0 ? byTime : Integer.compare(o2, o1);
+				}});
+			final int visits = Math.min(Math.max(limit, 0), held);
+			final Entry entry = new Entry(buffer);
+			for (int i = 0; i < visits; i++) {
+				entry.sequence = oldest + newestFirst[i];
+				entry.offset = slotOffset(entry.sequence);
+				visitor.visit(entry);
+			}
+			return visits;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// all the spots held, newest first, as the Persister lists them
+	public List<ClusterRecord> getRecords() {
+		final List<ClusterRecord> records = new ArrayList<>(capacity);
+		readNewestFirst(capacity, new Visitor() {
+			@Override
+			public void visit(final Entry entry) {
+				records.add(entry.toClusterRecord());
+			}
+		});
+		return records;
+	}
+}
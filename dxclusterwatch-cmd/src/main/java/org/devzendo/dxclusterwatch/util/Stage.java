@@ -0,0 +1,166 @@
+package org.devzendo.dxclusterwatch.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage of a pipeline: a single thread executing tasks from a bounded queue,
+ * in order. When the queue is full, submitters block until there's room, so a
+ * slow stage holds back the stages that feed it, rather than queueing work
+ * without limit. How often, and for how long, submitters were held back is
+ * recorded, along with counts of tasks run and failed.
+ *
+ * A task that throws a RuntimeException is logged and counted as failed; the
+ * stage carries on with the next task.
+ */
+public class Stage {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Stage.class);
+
+	private final String name;
+	private final int capacity;
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	private final AtomicLong blockedMillis = new AtomicLong();
+	private final AtomicLong busyMillis = new AtomicLong();
+	private final AtomicLong maxQueueDepth = new AtomicLong();
+
+	public Stage(final String name, final int capacity) {
+		this.name = name;
+		this.capacity = capacity;
+		executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r, name + " stage");
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(final Runnable r, final ThreadPoolExecutor ex) {
+						waitForRoom(r, ex);
+					}
+				});
+		executor.prestartAllCoreThreads();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Queue a task for execution, blocking while the queue is full.
+	 * @param task the task to run on this stage's thread
+	 * @throws RejectedExecutionException if the stage has been shut down, or the
+	 * submitter was interrupted while waiting for room
+	 */
+	public void submit(final Runnable task) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final long start = System.currentTimeMillis();
+				try {
+					task.run();
+				} catch (final RuntimeException re) {
+					failed.incrementAndGet();
+					LOGGER.warn("Task failed in " + name + " stage: " + re.getMessage(), re);
+				} finally {
+					busyMillis.addAndGet(System.currentTimeMillis() - start);
+					completed.incrementAndGet();
+				}
+			}
+		});
+		submitted.incrementAndGet();
+		final int depth = executor.getQueue().size();
+		long max;
+		while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+			// retry
+		}
+	}
+
+	private void waitForRoom(final Runnable r, final ThreadPoolExecutor ex) {
+		if (ex.isShutdown()) {
+			throw new RejectedExecutionException("The " + name + " stage has been shut down");
+		}
+		blocked.incrementAndGet();
+		final long start = System.currentTimeMillis();
+		try {
+			LOGGER.debug("The {} stage is full; waiting for room", name);
+			ex.getQueue().put(r);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted waiting for room in the " + name + " stage");
+		} finally {
+			blockedMillis.addAndGet(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Stop accepting tasks, and wait for those already queued to finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				LOGGER.debug("Waiting for the {} stage to finish", name);
+			}
+		} catch (final InterruptedException e) {
+			LOGGER.warn("Interrupted waiting for the " + name + " stage to finish");
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// number of tasks waiting to run, excluding any that is running
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	// number of submissions that had to wait for room in the queue
+	public long getBlocked() {
+		return blocked.get();
+	}
+
+	public long getBlockedMillis() {
+		return blockedMillis.get();
+	}
+
+	public long getBusyMillis() {
+		return busyMillis.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s stage: queue %d/%d (max %d), submitted %d, completed %d, failed %d, busy %d ms, blocked %d times for %d ms",
+				name, getQueueDepth(), capacity, getMaxQueueDepth(), getSubmitted(), getCompleted(), getFailed(),
+				getBusyMillis(), getBlocked(), getBlockedMillis());
+	}
+}
@@ -0,0 +1,121 @@
+package org.devzendo.dxclusterwatch.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, thread safe interning table for the strings that repeat from spot
+ * to spot: callsigns, continents, prefixes, country names and the like. Equal
+ * strings interned while they're both in the table are the same instance, so
+ * comparing them is a reference check, and only one copy is kept alive.
+ *
+ * The table is a fixed array of slots, each holding the last string interned
+ * that hashed to it, so it never grows: a string that collides with another
+ * replaces it, and the one replaced is simply no longer shared. There are no
+ * locks; racing threads may each store an equal string, which is harmless.
+ *
+ * Strings can be interned from a region of a char array, as read by a parser,
+ * without creating a String unless the table doesn't already have it.
+ */
+public class SymbolTable {
+	// Enough for the callsigns and countries seen in a busy day of the feed.
+	private static final SymbolTable SHARED = new SymbolTable(16384);
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param capacity the number of slots, rounded up to a power of two
+	 */
+	public SymbolTable(final int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity " + capacity + " must be between 1 and 2^30");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		slots = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	// The table shared by the poller, persister and activity watcher.
+	public static SymbolTable shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @return the table's string equal to value, or value itself, now in the
+	 * table; null if value is null.
+	 */
+	public String intern(final String value) {
+		if (value == null) {
+			return null;
+		}
+		final int slot = slot(value.hashCode());
+		final String existing = slots.get(slot);
+		if (existing != null && (existing == value || existing.equals(value))) {
+			hits.incrementAndGet();
+			return existing;
+		}
+		misses.incrementAndGet();
+		slots.set(slot, value);
+		return value;
+	}
+
+	/**
+	 * @return the table's string equal to the chars, or a new one, now in the table.
+	 */
+	public String intern(final char[] chars, final int offset, final int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		final int slot = slot(hash);
+		final String existing = slots.get(slot);
+		if (existing != null && contentEquals(existing, chars, offset, length)) {
+			hits.incrementAndGet();
+			return existing;
+		}
+		misses.incrementAndGet();
+		final String value = new String(chars, offset, length);
+		slots.set(slot, value);
+		return value;
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SymbolTable[capacity " + getCapacity() + ", " + getHits() + " hits, " + getMisses() + " misses]";
+	}
+
+	// String's hash, with the high bits spread into the low ones that index the slots
+	private int slot(final int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private static boolean contentEquals(final String value, final char[] chars, final int offset, final int length) {
+		if (value.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -3,14 +3,22 @@ package org.devzendo.dxclusterwatch.cmd;
 import static org.devzendo.dxclusterwatch.cmd.LongCloseTo.closeTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.atLeast;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.devzendo.commoncode.time.Sleeper;
 import org.devzendo.dxclusterwatch.cmd.ActivityWatcher.MarkPublished;
@@ -53,6 +61,7 @@ public class TestController {
 	private final ClusterRecord dbRecord1 = ClusterRecord.dbRecord(1, "GB4IMD", "M0CUV", secsFromEpoch(20), "14060", "Hi Matt");
 	private final ClusterRecord dbRecord2 = ClusterRecord.dbRecord(2, "GB3IMD", "M0CUV", secsFromEpoch(25), "7035", "UP 20");
 	private final ClusterRecord[] records = new ClusterRecord[] { dbRecord1, dbRecord2 };
+	private final List<ClusterRecord> newRecords = Arrays.asList(dbRecord1, dbRecord2);
 
 	private Thread controllerThread; // controller start() is blocking, so need to start it elsewhere.
 	private volatile Controller controller;
@@ -92,7 +101,7 @@ public class TestController {
 		when(config.isFeedReadingEnabled()).thenReturn(true);
 		when(config.isPageUpdatingEnabled()).thenReturn(true);
 		when(sitePoller.poll()).thenReturn(records);
-		when(persister.persistRecords(records)).thenReturn(2);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
 		when(persister.getNextRecordToTweet()).thenReturn(null);
 
 		startController();
@@ -104,13 +113,62 @@ public class TestController {
 		verify(pageBuilder).publishPage();
 	}
 
+	@Test
+	public void untweetedRecordsAreReadAtStartupAndOnlyNewRecordsAfterwards() throws Exception {
+		final ClusterRecord untweetedRecord = ClusterRecord.dbRecord(3, "GB3MRS", "G0VAR", secsFromEpoch(15), "10118", "VY 73 OM");
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(true);
+		when(sitePoller.poll()).thenReturn(records);
+		when(persister.getUntweetedRecords()).thenReturn(Arrays.asList(untweetedRecord));
+		when(persister.persistRecords(records)).thenReturn(newRecords);
+
+		startController();
+
+		sleeper.sleep(2500);
+		controller.stop();
+
+		verify(persister, times(1)).getUntweetedRecords();
+		verify(activityWatcher).seen(Mockito.eq(untweetedRecord), Mockito.any(MarkPublished.class));
+		verify(activityWatcher).seen(Mockito.eq(dbRecord1), Mockito.any(MarkPublished.class));
+		verify(activityWatcher).seen(Mockito.eq(dbRecord2), Mockito.any(MarkPublished.class));
+	}
+
+	@Test
+	public void untweetedRecordsAreReadAgainAfterAFailureBeforeAnythingIsPolled() throws Exception {
+		final ClusterRecord untweetedRecord = ClusterRecord.dbRecord(3, "GB3MRS", "G0VAR", secsFromEpoch(15), "10118", "VY 73 OM");
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(true);
+		when(persister.getUntweetedRecords())
+			.thenThrow(new RuntimeException("could not read"))
+			.thenReturn(Arrays.asList(untweetedRecord));
+		final List<Long> pollTimeOffsets = Collections.synchronizedList(new ArrayList<Long>());
+		final long start = nowSeconds();
+		when(sitePoller.poll()).thenAnswer(new Answer<ClusterRecord[]>() {
+			@Override
+			public ClusterRecord[] answer(final InvocationOnMock invocation) throws Throwable {
+				pollTimeOffsets.add(nowSeconds() - start);
+				return new ClusterRecord[0];
+			}
+		});
+
+		startController();
+
+		sleeper.sleep(90000);
+		controller.stop();
+
+		verify(persister, times(2)).getUntweetedRecords();
+		verify(activityWatcher).seen(Mockito.eq(untweetedRecord), Mockito.any(MarkPublished.class));
+		// backed off for 60s before the read succeeded, and the first poll
+		assertThat(pollTimeOffsets.get(0), closeTo(60L, 5L));
+	}
+
 	@Test
 	public void publishingCanBeDisabled() throws Exception {
 		configExpectations();
 		when(config.isFeedReadingEnabled()).thenReturn(true);
 		when(config.isPageUpdatingEnabled()).thenReturn(false);
 		when(sitePoller.poll()).thenReturn(records);
-		when(persister.persistRecords(records)).thenReturn(2);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
 		when(persister.getNextRecordToTweet()).thenReturn(null);
 
 		startController();
@@ -122,6 +180,134 @@ public class TestController {
 		verify(pageBuilder, never()).publishPage();
 	}
 
+	@Test
+	public void slowPagePublishingDoesNotHoldUpPolling() throws Exception {
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(true);
+		when(config.isPageUpdatingEnabled()).thenReturn(true);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
+		final CountDownLatch twoPolls = new CountDownLatch(2);
+		when(sitePoller.poll()).thenAnswer(new Answer<ClusterRecord[]>() {
+			@Override
+			public ClusterRecord[] answer(final InvocationOnMock invocation) throws Throwable {
+				twoPolls.countDown();
+				return records;
+			}
+		});
+		final CountDownLatch publishReleased = new CountDownLatch(1);
+		Mockito.doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				LOGGER.debug("Publishing slowly...");
+				publishReleased.await();
+				return null;
+			}
+		}).when(pageBuilder).publishPage();
+
+		startController();
+
+		// the first publish is still stuck when the next poll happens
+		assertThat(twoPolls.await(10, TimeUnit.SECONDS), equalTo(true));
+		publishReleased.countDown();
+		controller.stop();
+
+		verify(pageBuilder, times(2)).publishPage();
+	}
+
+	@Test
+	public void busyPollsAreUpdatedEveryMinimumInterval() throws Exception {
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(true);
+		when(config.isPageUpdatingEnabled()).thenReturn(true);
+		when(config.getPageMinIntervalSeconds()).thenReturn(120);
+		when(config.getPageMaxStalenessSeconds()).thenReturn(600);
+		when(sitePoller.poll()).thenReturn(records);
+		final AtomicInteger polls = new AtomicInteger();
+		when(persister.persistRecords(records)).thenAnswer(new Answer<List<ClusterRecord>>() {
+			@Override
+			public List<ClusterRecord> answer(final InvocationOnMock invocation) throws Throwable {
+				polls.incrementAndGet();
+				return newRecords;
+			}
+		});
+		final List<Long> rebuildTimeOffsets = Collections.synchronizedList(new ArrayList<Long>());
+		final AtomicInteger rebuiltRecords = new AtomicInteger();
+		recordPageRebuilds(rebuildTimeOffsets, rebuiltRecords);
+
+		startController();
+
+		// polls every 60s, each with new records, are updated at once, then
+		// every 120s
+		sleeper.sleep(330000);
+		final List<Long> offsets = new ArrayList<>(rebuildTimeOffsets);
+		controller.stop();
+
+		assertThat(offsets, Matchers.hasSize(3));
+		final long tolerance = 5L;
+		assertThat(offsets.get(0), closeTo(0L, tolerance));
+		assertThat(offsets.get(1), closeTo(120L, tolerance));
+		assertThat(offsets.get(2), closeTo(240L, tolerance));
+		// any pending update is made on stop; together, they cover every poll
+		assertThat(rebuiltRecords.get(), equalTo(2 * polls.get()));
+	}
+
+	@Test
+	public void busyPollsAreUpdatedSoonEnoughToBePublishedWithinTheMaximumStaleness() throws Exception {
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(true);
+		when(config.isPageUpdatingEnabled()).thenReturn(true);
+		when(config.getPageMinIntervalSeconds()).thenReturn(120);
+		when(config.getPageMaxStalenessSeconds()).thenReturn(120);
+		when(config.getPublishWindowSeconds()).thenReturn(90);
+		when(sitePoller.poll()).thenReturn(records);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
+		final List<Long> rebuildTimeOffsets = Collections.synchronizedList(new ArrayList<Long>());
+		recordPageRebuilds(rebuildTimeOffsets, new AtomicInteger());
+
+		startController();
+
+		// the polls at 60 and 120s are rebuilt 30s later, rather than at 120
+		// and 240s, leaving the publisher its 90s window
+		sleeper.sleep(170000);
+		final List<Long> offsets = new ArrayList<>(rebuildTimeOffsets);
+		controller.stop();
+
+		assertThat(offsets, Matchers.hasSize(3));
+		final long tolerance = 5L;
+		assertThat(offsets.get(0), closeTo(0L, tolerance));
+		assertThat(offsets.get(1), closeTo(90L, tolerance));
+		assertThat(offsets.get(2), closeTo(150L, tolerance));
+	}
+
+	@Test
+	public void sleepsUntilTheNextDeadlineRatherThanEverySecond() throws Exception {
+		final List<Long> loopSleeps = Collections.synchronizedList(new ArrayList<Long>());
+		sleeper = new Sleeper(100) {
+			@Override
+			public void sleep(final long ms) {
+				if (Thread.currentThread() == controllerThread) {
+					loopSleeps.add(ms);
+				}
+				super.sleep(ms);
+			}
+		};
+		configExpectations();
+		when(config.getTweetSeconds()).thenReturn(30);
+		when(persister.getNextRecordToTweet()).thenReturn(null);
+
+		startController();
+
+		sleeper.sleep(120000);
+		controller.stop();
+
+		// polls due at 0, 60, 120s; tweets at 0, 30, 60, 90, 120s: a one second
+		// loop would have slept 120 times.
+		LOGGER.debug("Loop slept {} times: {}", loopSleeps.size(), loopSleeps);
+		assertThat(loopSleeps.size(), lessThan(20));
+		verify(config, atLeast(2)).getPollMinutes();
+		verify(config, atLeast(4)).getTweetSeconds();
+	}
+
 	@Test
 	public void sitePollerFailureTriggersBackoff() throws Exception {
 		configExpectations();
@@ -361,6 +547,42 @@ public class TestController {
 		assertThat(tweetIntervals.get(12), closeTo(600L, tolerance));
 	}
 
+	@Test
+	public void activityWatcherFailureTriggersBackoffAndTweetingResumes() throws Exception {
+		configExpectations();
+		when(config.isFeedReadingEnabled()).thenReturn(false);
+		when(config.isTweetingEnabled()).thenReturn(true);
+		when(activityWatcher.latestTweetableActivity())
+			.thenThrow(new RuntimeException("could not mark tweeted"))
+			.thenReturn("Tweet1", "Tweet2");
+		final List<Long> tweetTimeOffsets = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		Mockito.doAnswer(new Answer<Object>() {
+			final long start = nowSeconds();
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				tweetTimeOffsets.add(nowSeconds() - start);
+				if (tweetTimeOffsets.size() == 2) {
+					done.countDown();
+				}
+				return null;
+			}
+		}).when(tweeter).tweetText(Mockito.anyString());
+
+		startController();
+
+		assertThat(done.await(10, TimeUnit.SECONDS), equalTo(true));
+		controller.stop();
+
+		// backed off after the failure, then back to tweetSeconds (1)
+		final long tolerance = 5L;
+		assertThat(tweetTimeOffsets.get(0), closeTo(60L, tolerance));
+		assertThat(tweetTimeOffsets.get(1), closeTo(61L, tolerance));
+		verify(tweeter).tweetText("Tweet1");
+		verify(tweeter).tweetText("Tweet2");
+	}
+
 	@Test
 	public void tweetingCanBeDisabled() throws Exception {
 		sleeper = new Sleeper(32); // small delay, needs better time accuracy
@@ -373,7 +595,7 @@ public class TestController {
 		when(persister.getNextRecordToTweet()).thenReturn(dbRecord1);
 		activityWatcher.seen(dbRecord1, new MarkPublished() {
 			@Override
-			public void markPublished(final ClusterRecord record) {
+			public void markPublished(final Collection<ClusterRecord> records) {
 				// do nothing
 			}});
 		when(activityWatcher.latestTweetableActivity()).thenReturn("Tweet1", "Tweet2", "Tweet3", "Tweet4", "Tweet5", "Tweet6");
@@ -418,7 +640,7 @@ public class TestController {
 		configExpectations();
 		when(sitePoller.poll()).thenReturn(records);
 		when(config.isTweetingEnabled()).thenReturn(true);
-		when(persister.persistRecords(records)).thenReturn(2);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
 		when(activityWatcher.latestTweetableActivity()).thenReturn("Tweet1", "Tweet2", "Tweet3", "Tweet4", "Tweet5", "Tweet6");
 		when(persister.getNextRecordToTweet()).thenReturn(dbRecord1, dbRecord2, null);
 		setupActivityWatcherToMarkPublishedWhenSeen();
@@ -439,7 +661,7 @@ public class TestController {
 		configExpectations();
 		when(sitePoller.poll()).thenReturn(records);
 		when(config.isTweetingEnabled()).thenReturn(true);
-		when(persister.persistRecords(records)).thenReturn(2);
+		when(persister.persistRecords(records)).thenReturn(newRecords);
 		when(activityWatcher.latestTweetableActivity()).thenReturn("Tweet", "Tweet");
 		when(persister.getNextRecordToTweet()).thenReturn(dbRecord1, dbRecord2, null);
 		setupActivityWatcherToMarkPublishedWhenSeen();
@@ -462,7 +684,7 @@ public class TestController {
 				final Object[] args = invocation.getArguments();
 				final ClusterRecord rec = (ClusterRecord) args[0];
 				final MarkPublished pub = (MarkPublished) args[1];
-				pub.markPublished(rec);
+				pub.markPublished(Collections.singletonList(rec));
 				// and replicate the behaviour of the activitywatcher...
 				System.out.println("persister mark tweeted " + rec);
 				persister.markTweeted(rec);
@@ -473,6 +695,18 @@ public class TestController {
 		}).when(activityWatcher).seen(Mockito.any(ClusterRecord.class), Mockito.any(MarkPublished.class));
 	}
 
+	private void recordPageRebuilds(final List<Long> rebuildTimeOffsets, final AtomicInteger rebuiltRecords) {
+		final long start = nowSeconds();
+		Mockito.doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				rebuildTimeOffsets.add(nowSeconds() - start);
+				rebuiltRecords.addAndGet((Integer) invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(pageBuilder).rebuildPage(Mockito.anyInt(), Mockito.anyInt());
+	}
+
 	private void configExpectations() {
 		when(config.getPollMinutes()).thenReturn(1);
 		when(config.getTweetSeconds()).thenReturn(1);
@@ -0,0 +1,90 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestPageDebouncer {
+	private static final long MIN_INTERVAL = 120000L;
+	private static final long MAX_STALENESS = 600000L;
+
+	private final PageDebouncer debouncer = new PageDebouncer();
+
+	@Test
+	public void nothingIsDueUntilRecordsArrive() {
+		assertThat(debouncer.getDueMillis(), equalTo(Long.MAX_VALUE));
+		assertThat(debouncer.takeIfDue(1000L), nullValue());
+		assertThat(debouncer.take(1000L), nullValue());
+	}
+
+	@Test
+	public void firstUpdateIsDueAsSoonAsRecordsArrive() {
+		debouncer.recordsArrived(5000L, 5, 2, MIN_INTERVAL, MAX_STALENESS);
+
+		assertThat(debouncer.getDueMillis(), equalTo(5000L));
+		final PageDebouncer.Update update = debouncer.takeIfDue(5000L);
+		assertThat(update.retrievedRecords, equalTo(5));
+		assertThat(update.newRecords, equalTo(2));
+		assertThat(debouncer.getDueMillis(), equalTo(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void updatesAreAtLeastTheMinimumIntervalApart() {
+		debouncer.recordsArrived(0L, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+		debouncer.take(10000L);
+
+		debouncer.recordsArrived(20000L, 5, 2, MIN_INTERVAL, MAX_STALENESS);
+		assertThat(debouncer.getDueMillis(), equalTo(130000L));
+		assertThat(debouncer.takeIfDue(129999L), nullValue());
+	}
+
+	@Test
+	public void laterArrivalsJoinThePendingUpdateWithoutPuttingItOff() {
+		debouncer.recordsArrived(0L, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+		debouncer.take(0L);
+
+		debouncer.recordsArrived(60000L, 5, 2, MIN_INTERVAL, MAX_STALENESS);
+		debouncer.recordsArrived(110000L, 4, 1, MIN_INTERVAL, MAX_STALENESS);
+		assertThat(debouncer.getDueMillis(), equalTo(120000L));
+		final PageDebouncer.Update update = debouncer.takeIfDue(120000L);
+		assertThat(update.retrievedRecords, equalTo(9));
+		assertThat(update.newRecords, equalTo(3));
+	}
+
+	@Test
+	public void continuousArrivalsAreUpdatedEveryMinimumInterval() {
+		final List<Long> updates = new ArrayList<>();
+		for (long now = 0L; now <= 600000L; now += 60000L) {
+			debouncer.recordsArrived(now, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+			if (debouncer.takeIfDue(now) != null) {
+				updates.add(now);
+			}
+		}
+
+		assertThat(updates, contains(0L, 120000L, 240000L, 360000L, 480000L, 600000L));
+	}
+
+	@Test
+	public void anUpdateAfterAQuietSpellIsDueAtOnce() {
+		debouncer.recordsArrived(0L, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+		debouncer.take(0L);
+
+		debouncer.recordsArrived(500000L, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+		assertThat(debouncer.getDueMillis(), equalTo(500000L));
+	}
+
+	@Test
+	public void theMaximumStalenessOverridesTheMinimumInterval() {
+		debouncer.recordsArrived(0L, 1, 1, MIN_INTERVAL, MAX_STALENESS);
+		debouncer.take(0L);
+
+		debouncer.recordsArrived(30000L, 1, 1, MIN_INTERVAL, 60000L);
+		assertThat(debouncer.getDueMillis(), equalTo(90000L));
+	}
+}
@@ -0,0 +1,208 @@
+package org.devzendo.dxclusterwatch.cmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.devzendo.commoncode.resource.ResourceLoader;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestSpot {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestSpot.class);
+	private static final long APRIL_18_2016_0701_GMT = 1460962860000L;
+
+	private ClusterRecord feedRecord() {
+		final ClusterRecord record = new ClusterRecord();
+		record.setBand("20");
+		record.setCall("IS0GGA");
+		record.setComment("tnx for dx.73 from sardinia.");
+		record.setDx_cont("EU");
+		record.setDx_cqz("16");
+		record.setDx_ituz("0");
+		record.setDx_lat("55.8");
+		record.setDx_long("37.6");
+		record.setDx_name("EUROPEAN RUSSIA");
+		record.setDx_prefix("UA");
+		record.setDxcall("UA5D");
+		record.setFreq("14217.4");
+		record.setMytime("18/04/16 at 07:01");
+		record.setNr("14689356");
+		record.setSpotter_cont("EU");
+		record.setSpotter_cqz("15");
+		record.setSpotter_ituz("0");
+		record.setSpotter_lat("39.2");
+		record.setSpotter_long("9");
+		record.setSpotter_name("SARDINIA");
+		record.setSpotter_prefix("IS0");
+		record.setTime("2016-04-18 07:01:00");
+		return record;
+	}
+
+	@Test
+	public void numericFieldsAreParsed() {
+		final Spot spot = Spot.fromClusterRecord(feedRecord());
+
+		assertThat(spot.getNr(), equalTo(14689356L));
+		assertThat(spot.getFrequencyTenthsKHz(), equalTo(142174));
+		assertThat(spot.getFrequencyKHz(), equalTo(14217));
+		assertThat(spot.getFrequencyHz(), equalTo(14217400L));
+		assertThat(spot.getTimeMillis(), equalTo(APRIL_18_2016_0701_GMT));
+		assertThat(spot.getDxLatitude(), equalTo(55.8f));
+		assertThat(spot.getSpotterLongitude(), equalTo(9f));
+		assertThat(spot.getDxCqZone(), equalTo((byte) 16));
+		assertThat(spot.getSpotterCqZone(), equalTo((byte) 15));
+	}
+
+	@Test
+	public void repeatedStringsAreShared() {
+		final Spot spot1 = Spot.fromClusterRecord(feedRecord());
+		final Spot spot2 = Spot.fromClusterRecord(feedRecord());
+
+		assertThat(spot1.getDxcall(), sameInstance(spot2.getDxcall()));
+		assertThat(spot1.getDxContinent(), sameInstance(spot2.getSpotterContinent()));
+		assertThat(spot1.getDxName(), sameInstance(spot2.getDxName()));
+	}
+
+	@Test
+	public void feedRecordsSurviveTheRoundTripWhateverTheDefaultTimeZone() throws Exception {
+		final ClusterRecord[] records = new ObjectMapper().readValue(ResourceLoader.getResourceInputStream("pretty_printed_dxcluster.json"), ClusterRecord[].class);
+		final TimeZone defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+		try {
+			for (final ClusterRecord record : records) {
+				assertSurvivesTheRoundTrip(record);
+			}
+		} finally {
+			TimeZone.setDefault(defaultTimeZone);
+		}
+	}
+
+	private void assertSurvivesTheRoundTrip(final ClusterRecord record) throws ParseException {
+		final ClusterRecord copy = Spot.fromClusterRecord(record).toClusterRecord();
+		assertThat(copy.toDbString(), equalTo(record.toDbString()));
+		assertThat(copy.getTime(), equalTo(record.getTime()));
+		assertThat(copy.getMytime(), equalTo(record.getMytime()));
+		assertThat(copy.getBand(), equalTo(record.getBand()));
+		assertThat(copy.getDx_cont(), equalTo(record.getDx_cont()));
+		assertThat(copy.getDx_cqz(), equalTo(record.getDx_cqz()));
+		assertThat(copy.getDx_ituz(), equalTo(record.getDx_ituz()));
+		assertThat(copy.getDx_lat(), equalTo(record.getDx_lat()));
+		assertThat(copy.getDx_long(), equalTo(record.getDx_long()));
+		assertThat(copy.getDx_name(), equalTo(record.getDx_name()));
+		assertThat(copy.getDx_prefix(), equalTo(record.getDx_prefix()));
+		assertThat(copy.getSpotter_cont(), equalTo(record.getSpotter_cont()));
+		assertThat(copy.getSpotter_cqz(), equalTo(record.getSpotter_cqz()));
+		assertThat(copy.getSpotter_ituz(), equalTo(record.getSpotter_ituz()));
+		assertThat(copy.getSpotter_lat(), equalTo(record.getSpotter_lat()));
+		assertThat(copy.getSpotter_long(), equalTo(record.getSpotter_long()));
+		assertThat(copy.getSpotter_name(), equalTo(record.getSpotter_name()));
+		assertThat(copy.getSpotter_prefix(), equalTo(record.getSpotter_prefix()));
+		assertThat(copy.getTimeAsTimestamp(), equalTo(gmtTimestamp(record.getTime())));
+	}
+
+	private static Timestamp gmtTimestamp(final String time) throws ParseException {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return new Timestamp(format.parse(time).getTime());
+	}
+
+	// The sample feed is read repeatedly, so each copy has its own strings, as
+	// successive polls would.
+	@Test
+	public void spotsTakeLessThanHalfTheHeapOfFeedRecords() throws Exception {
+		final int count = 50000;
+		final ObjectMapper objectMapper = new ObjectMapper();
+
+		final long baseline = usedHeap();
+		ClusterRecord[] records = new ClusterRecord[count];
+		int filled = 0;
+		while (filled < count) {
+			final ClusterRecord[] sample = objectMapper.readValue(ResourceLoader.getResourceInputStream("pretty_printed_dxcluster.json"), ClusterRecord[].class);
+			for (int i = 0; i < sample.length && filled < count; i++) {
+				records[filled++] = sample[i];
+			}
+		}
+		final long recordBytes = usedHeap() - baseline;
+
+		final Spot[] spots = new Spot[count];
+		for (int i = 0; i < count; i++) {
+			spots[i] = Spot.fromClusterRecord(records[i]);
+		}
+		records = null;
+		final long spotBytes = usedHeap() - baseline;
+
+		LOGGER.info("Per spot: ClusterRecord {} bytes, Spot {} bytes", recordBytes / count, spotBytes / count);
+		assertThat(spots[count - 1], notNullValue());
+		assertThat(spotBytes * 2, lessThan(recordBytes));
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Test
+	public void dbRecordsSurviveTheRoundTrip() {
+		final Timestamp when = Timestamp.valueOf("2016-04-18 07:01:00");
+		final ClusterRecord record = ClusterRecord.dbRecord(1, "GB4IMD", "M0CUV", when, "14060.3", "Hi Matt");
+
+		final ClusterRecord copy = Spot.fromClusterRecord(record).toClusterRecord();
+
+		assertThat(copy.getTimeAsTimestamp(), equalTo(when));
+		assertThat(copy.getFreq(), equalTo("14060.3"));
+		assertThat(copy.getDxcall(), equalTo("GB4IMD"));
+		assertThat(copy.getDx_name(), nullValue());
+		assertThat(copy.getDx_lat(), equalTo(""));
+	}
+
+	@Test
+	public void mytimeIsFormedInGmt() {
+		final ClusterRecord record = feedRecord();
+		record.setTimeAsTimestamp(new Timestamp(APRIL_18_2016_0701_GMT));
+
+		assertThat(Spot.fromClusterRecord(record).toClusterRecord().getMytime(), equalTo("18/04/16 at 07:01"));
+	}
+
+	@Test
+	public void frequencies() {
+		assertThat(Spot.parseFrequency("14060"), equalTo(140600));
+		assertThat(Spot.parseFrequency(" 14060.3 "), equalTo(140603));
+		assertThat(Spot.parseFrequency("14060.37"), equalTo(140603));
+		assertThat(Spot.parseFrequency("10368100.5"), equalTo(103681005));
+		assertThat(Spot.parseFrequency(""), equalTo(0));
+		assertThat(Spot.parseFrequency(null), equalTo(0));
+		assertThat(Spot.formatFrequency(140603), equalTo("14060.3"));
+		assertThat(Spot.formatFrequency(140600), equalTo("14060"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void frequencyMustBeANumber() {
+		Spot.parseFrequency("14060.x");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void frequencyMustFitAnInt() {
+		Spot.parseFrequency("300000000");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void nrMustBeANumber() {
+		final ClusterRecord record = feedRecord();
+		record.setNr("");
+		Spot.fromClusterRecord(record);
+	}
+}
@@ -0,0 +1,472 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.devzendo.commoncode.time.Sleeper;
+import org.devzendo.dxclusterwatch.cmd.ActivityWatcher.MarkPublished;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.Controller;
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.devzendo.dxclusterwatch.cmd.Tweeter;
+import org.devzendo.dxclusterwatch.test.FakeDXCluster;
+
+/**
+ * Not a unit test: run its main to load the whole pipeline. A FakeDXCluster
+ * serves a sliding window of synthetic spots, as ReplayDXClusterServer serves
+ * pages of a recording, generated at a steady rate in real time. A Controller
+ * polls it, with its real poller, persister, activity watcher and page
+ * builder, on a Sleeper running at accelerated time; tweeting and publishing
+ * do nothing.
+ *
+ * A fraction of the spots are of the watched callsigns, GB1IMD and so on, and
+ * a fraction of those repeat a callsign's last frequency, so the activity
+ * watcher sees them as duplicates. The rest are filtered out by the poller.
+ *
+ * When done, it reports the rates, and the latencies of the watched spots
+ * from poll to persist, from persist to being marked as tweeted by the
+ * activity watcher, and from persist to being published on the page.
+ *
+ * Usage: LoadGenerator [-r spots per second, default 100] [-s seconds, default 60]
+ *     [-c watched callsigns, default 20] [-m fraction of spots watched, default 0.1]
+ *     [-d fraction of watched spots duplicated, default 0.2]
+ *     [-x time multiplier, default 60] [-w spots served, default two polls' worth]
+ */
+public class LoadGenerator {
+	private static final int TICK_MS = 10;
+	private static final int OTHER_CALLSIGNS = 5000;
+	private static final int SPOTTERS = 500;
+	private static final String LINE_SEP = System.getProperty("line.separator");
+
+	private static final Publisher NO_PUBLISHER = new Publisher() {
+		@Override
+		public void publish(final Set<String> fileNames) {
+			// not measured
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}};
+
+	private static final Tweeter NO_TWEETER = new Tweeter() {
+		@Override
+		public void tweet(final ClusterRecord recordToTweet) {
+			// not measured
+		}
+
+		@Override
+		public void tweetText(final String activity) {
+			// not measured
+		}};
+
+	private final int spotsPerSecond;
+	private final int seconds;
+	private final int watchedCallsigns;
+	private final double watchedRatio;
+	private final double duplicateRatio;
+	private final int timeMultiplier;
+	private final int windowSpots;
+
+	private final Random random = new Random(1);
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Sleeper sleeper;
+	// newest first, as the cluster serves them; guarded by itself
+	private final ArrayDeque<ClusterRecord> window = new ArrayDeque<>();
+	// each watched callsign's last frequency, for duplicating
+	private final Map<String, String> lastFrequencies = new HashMap<>();
+	private int nextNr = 1;
+	private int generated = 0;
+	private int generatedWatched = 0;
+
+	// nr to nanoTime, of the watched spots polled but not yet persisted
+	private final Map<String, Long> polledNanos = new ConcurrentHashMap<>();
+	// nr to nanoTime, of the spots persisted but not yet marked as tweeted
+	private final Map<String, Long> persistedNanos = new ConcurrentHashMap<>();
+	// persist nanoTime and count, of the spots persisted but not yet on a page
+	private final ConcurrentLinkedQueue<long[]> persistedForPage = new ConcurrentLinkedQueue<>();
+	private final Latencies pollToPersist = new Latencies("poll->persist");
+	private final Latencies persistToTweetReady = new Latencies("persist->tweet");
+	private final Latencies persistToPage = new Latencies("persist->page");
+	private volatile int persisted = 0;
+
+	// Nanosecond latencies, reported in ms.
+	private static class Latencies {
+		private final String name;
+		private long[] nanos = new long[1024];
+		private int count = 0;
+
+		public Latencies(final String name) {
+			this.name = name;
+		}
+
+		public synchronized void add(final long latencyNanos, final int times) {
+			while (count + times > nanos.length) {
+				nanos = Arrays.copyOf(nanos, nanos.length * 2);
+			}
+			Arrays.fill(nanos, count, count + times, latencyNanos);
+			count += times;
+		}
+
+		public synchronized String report() {
+			final long[] sorted = Arrays.copyOf(nanos, count);
+			Arrays.sort(sorted);
+			return String.format("%-16s %8d %10.1f %10.1f %10.1f %10.1f", name, count,
+					millis(percentile(sorted, 50)), millis(percentile(sorted, 90)),
+					millis(percentile(sorted, 99)), millis(count == 0 ? 0 : sorted[count - 1]));
+		}
+
+		private static long percentile(final long[] sorted, final int percent) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			final int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, index)];
+		}
+
+		private static double millis(final long nanos) {
+			return nanos / 1000000.0;
+		}
+	}
+
+	public static void main(final String[] args) {
+		setupLogging();
+		try {
+			int spotsPerSecond = 100;
+			int seconds = 60;
+			int watchedCallsigns = 20;
+			double watchedRatio = 0.1;
+			double duplicateRatio = 0.2;
+			int timeMultiplier = 60;
+			int windowSpots = 0;
+			for (int i = 0; i < args.length; i++ ) {
+				final String arg = args[i];
+				if (i == args.length - 1) {
+					throw new IllegalArgumentException(arg + " needs an argument");
+				}
+				final String value = args[++i];
+				if (arg.equals("-r")) {
+					spotsPerSecond = Integer.parseInt(value);
+				} else if (arg.equals("-s")) {
+					seconds = Integer.parseInt(value);
+				} else if (arg.equals("-c")) {
+					watchedCallsigns = Integer.parseInt(value);
+				} else if (arg.equals("-m")) {
+					watchedRatio = Double.parseDouble(value);
+				} else if (arg.equals("-d")) {
+					duplicateRatio = Double.parseDouble(value);
+				} else if (arg.equals("-x")) {
+					timeMultiplier = Integer.parseInt(value);
+				} else if (arg.equals("-w")) {
+					windowSpots = Integer.parseInt(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (spotsPerSecond < 1 || spotsPerSecond > 10000) {
+				throw new IllegalArgumentException("-r must be between 1 and 10000 spots per second");
+			}
+			if (seconds < 1 || watchedCallsigns < 1 || timeMultiplier < 1) {
+				throw new IllegalArgumentException("-s, -c and -x must be at least 1");
+			}
+			if (watchedRatio < 0 || watchedRatio > 1 || duplicateRatio < 0 || duplicateRatio > 1) {
+				throw new IllegalArgumentException("-m and -d must be between 0 and 1");
+			}
+			if (windowSpots < 1) {
+				// enough that a poll doesn't miss any, even if it's late
+				windowSpots = (int) Math.max(100L, 2L * spotsPerSecond * 60 / timeMultiplier);
+			}
+			new LoadGenerator(spotsPerSecond, seconds, watchedCallsigns, watchedRatio, duplicateRatio, timeMultiplier, windowSpots).run();
+		} catch (final Exception e) {
+			System.err.println(e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	public LoadGenerator(final int spotsPerSecond, final int seconds, final int watchedCallsigns, final double watchedRatio,
+			final double duplicateRatio, final int timeMultiplier, final int windowSpots) {
+		this.spotsPerSecond = spotsPerSecond;
+		this.seconds = seconds;
+		this.watchedCallsigns = watchedCallsigns;
+		this.watchedRatio = watchedRatio;
+		this.duplicateRatio = duplicateRatio;
+		this.timeMultiplier = timeMultiplier;
+		this.windowSpots = windowSpots;
+		sleeper = new Sleeper(timeMultiplier);
+	}
+
+	private void run() throws IOException, InterruptedException {
+		final File root = Files.createTempDirectory("dxclusterwatch-load").toFile();
+		System.out.println("Database in " + root.getAbsolutePath());
+		final FakeDXCluster cluster = FakeDXCluster.createServer(freePort());
+		cluster.setFeed(new FakeDXCluster.Feed() {
+			@Override
+			public String read() throws IOException {
+				return serveWindow();
+			}
+		});
+		final Config config = new PropertiesConfig(writeProperties(root, cluster));
+		final SpotRingBuffer recentSpots = new SpotRingBuffer(config.getMaxListingEntries());
+		final H2Persister persister = createPersister(root, config, recentSpots);
+		final Controller controller = new Controller(config, persister, createPageBuilder(config, recentSpots),
+				NO_TWEETER, createSitePoller(root, config), sleeper, createActivityWatcher());
+		final Thread controllerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				controller.start();
+			}
+		}, "controller");
+		try {
+			controllerThread.start();
+			final long start = System.nanoTime();
+			generate(start, seconds * 1000000000L, cluster);
+			final long generatingNanos = System.nanoTime() - start;
+			// let the last spots be polled, tweeted and paged
+			final long intervalMillis = Math.max(config.getPollMinutes() * 60, config.getTweetSeconds()) * 1000L / timeMultiplier;
+			Thread.sleep(2 * intervalMillis);
+			controller.stop();
+			controllerThread.join();
+			report(generatingNanos, System.nanoTime() - start);
+		} finally {
+			persister.close();
+			cluster.stop();
+		}
+	}
+
+	private static int freePort() throws IOException {
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private File writeProperties(final File root, final FakeDXCluster cluster) throws IOException {
+		final File siteRepo = new File(root, "site.repo");
+		siteRepo.mkdir();
+		final File properties = new File(root, "load.properties");
+		final FileWriter fileWriter = new FileWriter(properties);
+		try {
+			fileWriter.write("callsigns=IMD" + LINE_SEP);
+			fileWriter.write("pollMinutes=1" + LINE_SEP);
+			fileWriter.write("tweetSeconds=30" + LINE_SEP);
+			fileWriter.write("siteRepoPath=" + siteRepo.getAbsolutePath() + LINE_SEP);
+			fileWriter.write("publisher=directory" + LINE_SEP);
+			fileWriter.write("publishDirectory=" + siteRepo.getAbsolutePath() + LINE_SEP);
+			fileWriter.write("consumerKey=abc" + LINE_SEP);
+			fileWriter.write("consumerSecret=def" + LINE_SEP);
+			fileWriter.write("accessToken=123abc" + LINE_SEP);
+			fileWriter.write("accessSecret=def987" + LINE_SEP);
+			fileWriter.write("maxListingEntries=100" + LINE_SEP);
+			fileWriter.write("enableFeedReading=true" + LINE_SEP);
+			fileWriter.write("enablePageUpdating=true" + LINE_SEP);
+			fileWriter.write("enableTweeting=false" + LINE_SEP);
+			fileWriter.write("serverURI=" + cluster.getURI() + LINE_SEP);
+		} finally {
+			fileWriter.close();
+		}
+		return properties;
+	}
+
+	// On the poll stage.
+	private DXClusterSitePoller createSitePoller(final File root, final Config config) {
+		return new DXClusterSitePoller(root, config) {
+			@Override
+			public ClusterRecord[] poll() {
+				final ClusterRecord[] records = super.poll();
+				final long now = System.nanoTime();
+				for (final ClusterRecord record : records) {
+					polledNanos.put(record.getNr(), now);
+				}
+				return records;
+			}
+		};
+	}
+
+	// On the persist stage, which only persists a poll's records once that
+	// poll is done.
+	private H2Persister createPersister(final File root, final Config config, final SpotRingBuffer recentSpots) {
+		return new H2Persister(root, config.getMaxListingEntries(), config.getDatabaseConnections(), recentSpots) {
+			@Override
+			public List<ClusterRecord> persistRecords(final ClusterRecord[] records) {
+				final List<ClusterRecord> newRecords = super.persistRecords(records);
+				final long now = System.nanoTime();
+				for (final ClusterRecord record : newRecords) {
+					final Long polled = polledNanos.get(record.getNr());
+					if (polled != null) {
+						pollToPersist.add(now - polled, 1);
+					}
+					persistedNanos.put(record.getNr(), now);
+				}
+				polledNanos.clear();
+				if (!newRecords.isEmpty()) {
+					persistedForPage.add(new long[] { now, newRecords.size() });
+				}
+				persisted += newRecords.size();
+				return newRecords;
+			}
+		};
+	}
+
+	// On the tweet stage. Wraps the Controller's MarkPublished, keeping one
+	// wrapper for each, as the watcher batches marks by MarkPublished.
+	private DefaultActivityWatcher createActivityWatcher() {
+		return new DefaultActivityWatcher(sleeper) {
+			private final Map<MarkPublished, MarkPublished> timedMarks = new IdentityHashMap<>();
+
+			@Override
+			public boolean seen(final ClusterRecord record, final MarkPublished markPublished) {
+				MarkPublished timedMark = timedMarks.get(markPublished);
+				if (timedMark == null) {
+					timedMark = new MarkPublished() {
+						@Override
+						public void markPublished(final Collection<ClusterRecord> records) {
+							markPublished.markPublished(records);
+							final long now = System.nanoTime();
+							for (final ClusterRecord markedRecord : records) {
+								final Long persistedAt = persistedNanos.remove(markedRecord.getNr());
+								if (persistedAt != null) {
+									persistToTweetReady.add(now - persistedAt, 1);
+								}
+							}
+						}};
+					timedMarks.put(markPublished, timedMark);
+				}
+				return super.seen(record, timedMark);
+			}
+		};
+	}
+
+	// On the page stage. The spots persisted before a rebuild starts are on
+	// the page once it's published.
+	private BitbucketPagesPageBuilder createPageBuilder(final Config config, final SpotRingBuffer recentSpots) {
+		return new BitbucketPagesPageBuilder(config, recentSpots, NO_PUBLISHER) {
+			private final List<long[]> rebuilt = new ArrayList<>();
+
+			@Override
+			public void rebuildPage(final int retrievedRecords, final int newRecords) {
+				long[] batch;
+				while ((batch = persistedForPage.poll()) != null) {
+					rebuilt.add(batch);
+				}
+				super.rebuildPage(retrievedRecords, newRecords);
+			}
+
+			@Override
+			public void publishPage() {
+				super.publishPage();
+				final long now = System.nanoTime();
+				for (final long[] batch : rebuilt) {
+					persistToPage.add(now - batch[0], (int) batch[1]);
+				}
+				rebuilt.clear();
+			}
+		};
+	}
+
+	// On the main thread, in real time.
+	private void generate(final long start, final long durationNanos, final FakeDXCluster cluster) throws InterruptedException {
+		long elapsed;
+		while ((elapsed = System.nanoTime() - start) < durationNanos) {
+			final long due = elapsed * spotsPerSecond / 1000000000L;
+			if (due > generated) {
+				synchronized (window) {
+					while (generated < due) {
+						window.addFirst(nextSpot());
+						generated++;
+					}
+					while (window.size() > windowSpots) {
+						window.removeLast();
+					}
+				}
+				cluster.touch();
+			}
+			Thread.sleep(TICK_MS);
+		}
+	}
+
+	private ClusterRecord nextSpot() {
+		final String dxcall;
+		String freq = null;
+		if (random.nextDouble() < watchedRatio) {
+			dxcall = "GB" + (1 + random.nextInt(watchedCallsigns)) + "IMD";
+			if (random.nextDouble() < duplicateRatio) {
+				freq = lastFrequencies.get(dxcall);
+			}
+			if (freq == null) {
+				freq = randomFrequency();
+				lastFrequencies.put(dxcall, freq);
+			}
+			generatedWatched++;
+		} else {
+			dxcall = "K" + random.nextInt(OTHER_CALLSIGNS) + "ZZ";
+			freq = randomFrequency();
+		}
+		final ClusterRecord record = new ClusterRecord();
+		record.setNr(Integer.toString(nextNr++));
+		record.setDxcall(dxcall);
+		record.setCall("M" + random.nextInt(SPOTTERS) + "XYZ");
+		record.setFreq(freq);
+		// as the feed has it, without the fraction of a second
+		record.setTime(new Timestamp(sleeper.currentTimeMillis()).toString().substring(0, 19));
+		record.setComment("Load spot " + record.getNr());
+		return record;
+	}
+
+	// somewhere in the HF bands, in kHz to a tenth
+	private String randomFrequency() {
+		return (1800 + random.nextInt(28000)) + "." + random.nextInt(10);
+	}
+
+	// On the cluster's thread.
+	private String serveWindow() throws IOException {
+		final List<ClusterRecord> page;
+		synchronized (window) {
+			page = new ArrayList<>(window);
+		}
+		return objectMapper.writeValueAsString(page);
+	}
+
+	private void report(final long generatingNanos, final long totalNanos) {
+		final double generatingSeconds = generatingNanos / 1000000000.0;
+		final double totalSeconds = totalNanos / 1000000000.0;
+		System.out.println(String.format("Generated %d spots in %.1f s, %.1f spots/s; %d watched", generated, generatingSeconds, generated / generatingSeconds, generatedWatched));
+		System.out.println(String.format("Persisted %d new spots in %.1f s, %.1f spots/s", persisted, totalSeconds, persisted / totalSeconds));
+		System.out.println(String.format("%-16s %8s %10s %10s %10s %10s", "latency (ms)", "spots", "p50", "p90", "p99", "max"));
+		System.out.println(pollToPersist.report());
+		System.out.println(persistToTweetReady.report());
+		System.out.println(persistToPage.report());
+		System.out.println(String.format("Still to be marked as tweeted: %d", persistedNanos.size()));
+	}
+
+	private static void setupLogging() {
+		BasicConfigurator.resetConfiguration();
+		final org.apache.log4j.Logger rootLogger = org.apache.log4j.Logger.getRootLogger();
+		rootLogger.addAppender(new ConsoleAppender(new PatternLayout("%d{ISO8601} %5p %c{1}:%L - %m%n")));
+		// the pipeline logs every spot at INFO, which would swamp the timings
+		rootLogger.setLevel(Level.WARN);
+	}
+}
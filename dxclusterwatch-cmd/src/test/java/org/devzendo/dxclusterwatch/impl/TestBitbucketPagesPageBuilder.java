@@ -0,0 +1,161 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestBitbucketPagesPageBuilder {
+	@Rule
+	public final TemporaryFolder tempDir = new TemporaryFolder();
+	private File siteRepo;
+
+	@Mock
+	private Config config;
+	@Mock
+	private Publisher publisher;
+	private final SpotRingBuffer recentSpots = new SpotRingBuffer(20);
+
+	private final ClusterRecord record1 = ClusterRecord.dbRecord(1, "GB4IMD", "M0CUV", secsFromEpoch(20), "14060", "Hi Matt");
+	private final ClusterRecord record2 = ClusterRecord.dbRecord(2, "GB3IMD", "M0CUV", secsFromEpoch(25), "7035", "UP 20");
+	private final ClusterRecord record3 = ClusterRecord.dbRecord(3, "GB2IMD", "G4ABC", secsFromEpoch(30), "3560", "<tnx>");
+	private final ClusterRecord lateRecord = ClusterRecord.dbRecord(4, "GB5IMD", "G4ABC", secsFromEpoch(10), "10118", "late");
+
+	private BitbucketPagesPageBuilder pageBuilder;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Before
+	public void setupPageBuilder() throws IOException {
+		tempDir.create();
+		siteRepo = tempDir.getRoot();
+		when(config.getSiteRepoPath()).thenReturn(siteRepo);
+		when(config.getMaxListingEntries()).thenReturn(20);
+		pageBuilder = new BitbucketPagesPageBuilder(config, recentSpots, publisher);
+	}
+
+	@Test
+	public void emptyListing() throws IOException {
+		pageBuilder.rebuildPage(0, 0);
+
+		assertThat(index(), containsString("No stations heard yet"));
+		assertThat(new File(siteRepo, "index.html.tmp").exists(), equalTo(false));
+	}
+
+	@Test
+	public void firstRebuildListsTheRecentSpotsNewestFirst() throws IOException {
+		recentSpots.addAll(Arrays.asList(record1, record2));
+
+		pageBuilder.rebuildPage(2, 2);
+
+		final String index = index();
+		assertThat(index, containsString("Retrieved 2 records; 2 new records"));
+		assertThat(index.indexOf("GB3IMD"), lessThan(index.indexOf("GB4IMD")));
+		assertThat(index, containsString("<tr class=\"tr0\"><td>" + record2.getTime() + "</td><td>7035</td><td>GB3IMD</td><td>M0CUV</td><td>UP 20</td></tr>"));
+	}
+
+	@Test
+	public void laterRebuildsAddNewerSpots() throws IOException {
+		recentSpots.addAll(Arrays.asList(record1, record2));
+		pageBuilder.rebuildPage(2, 2);
+		recentSpots.addAll(Arrays.asList(record3));
+
+		pageBuilder.rebuildPage(2, 1);
+
+		final String index = index();
+		assertThat(index.indexOf("GB2IMD"), lessThan(index.indexOf("GB3IMD")));
+		assertThat(index.indexOf("GB3IMD"), lessThan(index.indexOf("GB4IMD")));
+		assertThat(index, containsString("<tr class=\"tr0\"><td>" + record3.getTime() + "</td><td>3560</td><td>GB2IMD</td><td>G4ABC</td><td>&lt;tnx&gt;</td></tr>"));
+		assertThat(index, containsString("<tr class=\"tr1\"><td>" + record2.getTime() + "</td>"));
+	}
+
+	@Test
+	public void spotsOlderThanTheListingAreListedInTimeOrder() throws IOException {
+		recentSpots.addAll(Arrays.asList(record1, record2));
+		pageBuilder.rebuildPage(2, 2);
+		recentSpots.addAll(Arrays.asList(lateRecord));
+
+		pageBuilder.rebuildPage(1, 1);
+
+		final String index = index();
+		assertThat(index.indexOf("GB4IMD"), lessThan(index.indexOf("GB5IMD")));
+	}
+
+	@Test
+	public void rebuildsWithNoNewSpotsKeepTheListing() throws IOException {
+		recentSpots.addAll(Arrays.asList(record1, record2));
+		pageBuilder.rebuildPage(2, 2);
+
+		pageBuilder.rebuildPage(2, 0);
+
+		final String index = index();
+		assertThat(index, containsString("GB3IMD"));
+		assertThat(index, containsString("GB4IMD"));
+	}
+
+	@Test
+	public void listingIsLimitedToMaxListingEntries() throws IOException {
+		when(config.getMaxListingEntries()).thenReturn(2);
+		recentSpots.addAll(Arrays.asList(record1, record2));
+		pageBuilder.rebuildPage(2, 2);
+		recentSpots.addAll(Arrays.asList(record3));
+
+		pageBuilder.rebuildPage(1, 1);
+
+		final String index = index();
+		assertThat(index, containsString("GB2IMD"));
+		assertThat(index, containsString("GB3IMD"));
+		assertThat(index, not(containsString("GB4IMD")));
+	}
+
+	@Test
+	public void publishingPublishesTheIndex() {
+		pageBuilder.publishPage();
+
+		verify(publisher).publish(Collections.singleton("index.html"));
+	}
+
+	@Test
+	public void publishingFailureIsNotPropagated() {
+		doThrow(new RuntimeException("push failed")).when(publisher).publish(Collections.singleton("index.html"));
+
+		pageBuilder.publishPage();
+	}
+
+	private String index() throws IOException {
+		return new String(Files.readAllBytes(new File(siteRepo, "index.html").toPath()), Charset.forName("UTF-8"));
+	}
+
+	private Timestamp secsFromEpoch(final long secondsFromEpoch) {
+		return new Timestamp(secondsFromEpoch * 1000);
+	}
+}
@@ -0,0 +1,101 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestCallsignMatcher {
+
+	@Test
+	public void noCallsignsMatchesNothing() {
+		final CallsignMatcher matcher = new CallsignMatcher(Collections.<String>emptySet());
+		assertThat(matcher.matchesNothing(), equalTo(true));
+		assertThat(matcher.matchesEverything(), equalTo(false));
+		assertThat(matcher.matches("GB4IMD"), equalTo(false));
+	}
+
+	@Test
+	public void allMatchesEverything() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("ALL"));
+		assertThat(matcher.matchesNothing(), equalTo(false));
+		assertThat(matcher.matchesEverything(), equalTo(true));
+	}
+
+	@Test
+	public void matchesAnywhereInTheDXCall() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("IMD", "HG225"));
+		assertThat(matcher.matches("GB4IMD"), equalTo(true));
+		assertThat(matcher.matches("IMD1X"), equalTo(true));
+		assertThat(matcher.matches("HG225A/P"), equalTo(true));
+		assertThat(matcher.matches("HG22"), equalTo(false));
+		assertThat(matcher.matches("M0CUV"), equalTo(false));
+		assertThat(matcher.matches(""), equalTo(false));
+		assertThat(matcher.matches(null), equalTo(false));
+	}
+
+	@Test
+	public void matchingIsCaseInsensitive() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("GB4IMD"));
+		assertThat(matcher.matches("gb4imd"), equalTo(true));
+		assertThat(matcher.matches("Gb4ImD/p"), equalTo(true));
+	}
+
+	@Test
+	public void overlappingCallsignsAreFoundViaFailureLinks() {
+		// the partial match of ABCE must fall back to BCD
+		final CallsignMatcher matcher = new CallsignMatcher(set("ABCE", "BCD", "CDX"));
+		assertThat(matcher.matches("ABCD"), equalTo(true));
+		assertThat(matcher.matches("XABCDX"), equalTo(true));
+		assertThat(matcher.matches("ABCX"), equalTo(false));
+		assertThat(matcher.matches("AABCE"), equalTo(true));
+	}
+
+	@Test
+	public void shortCallsignInsideALongerOneIsFound() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("W1AW/7", "1A"));
+		assertThat(matcher.matches("W1AX"), equalTo(true));
+		assertThat(matcher.matches("W1AW/7"), equalTo(true));
+	}
+
+	@Test
+	public void emptyCallsignMatchesEverything() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("", "GB4IMD"));
+		assertThat(matcher.matches("M0CUV"), equalTo(true));
+	}
+
+	@Test
+	public void isForAnEqualSetOfCallsigns() {
+		final CallsignMatcher matcher = new CallsignMatcher(set("GB4IMD", "M0CUV"));
+		assertThat(matcher.isFor(set("M0CUV", "GB4IMD")), equalTo(true));
+		assertThat(matcher.isFor(set("M0CUV")), equalTo(false));
+	}
+
+	@Test
+	public void sameResultsAsContainsForManyCallsigns() {
+		final Set<String> callsigns = new HashSet<>();
+		for (int i = 0; i < 500; i++) {
+			callsigns.add("GB" + i + "IMD");
+		}
+		final CallsignMatcher matcher = new CallsignMatcher(callsigns);
+		for (int i = 0; i < 1000; i++) {
+			final String dxcall = "gb" + i + "imd/p";
+			boolean expected = false;
+			for (final String callsign : callsigns) {
+				if (dxcall.toUpperCase().contains(callsign)) {
+					expected = true;
+				}
+			}
+			assertThat(dxcall, matcher.matches(dxcall), equalTo(expected));
+		}
+	}
+
+	private Set<String> set(final String ... callsigns) {
+		return new HashSet<>(Arrays.asList(callsigns));
+	}
+}
@@ -0,0 +1,131 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.devzendo.dxclusterwatch.impl.ClusterRecordStreamReader.NO_NR;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.devzendo.commoncode.resource.ResourceLoader;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.impl.ClusterRecordStreamReader.ReadResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestClusterRecordStreamReader {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private final ClusterRecordStreamReader reader = new ClusterRecordStreamReader();
+	private final List<ClusterRecord> matched = new ArrayList<>();
+
+	@Test
+	public void allRecordsAreReadIdenticallyToDataBinding() throws IOException {
+		final int numRecords = reader.read(sampleFile(), matcher("ALL"), NO_NR, matched).numRecords;
+		assertThat(numRecords, equalTo(35));
+		assertThat(matched, hasSize(35));
+
+		final ClusterRecord[] bound = new ObjectMapper().readValue(sampleFile(), ClusterRecord[].class);
+		for (int i = 0; i < bound.length; i++) {
+			assertThat(matched.get(i).toString(), equalTo(bound[i].toString()));
+		}
+	}
+
+	@Test
+	public void onlyMatchingRecordsAreBuilt() throws IOException {
+		final int numRecords = reader.read(sampleFile(), matcher("UA5D", "HG225"), NO_NR, matched).numRecords;
+		assertThat(numRecords, equalTo(35));
+
+		final List<String> dxcalls = new ArrayList<>();
+		for (final ClusterRecord clusterRecord : matched) {
+			dxcalls.add(clusterRecord.getDxcall());
+		}
+		assertThat(dxcalls, containsInAnyOrder("UA5D", "HG225E", "HG225MSE", "HG225A"));
+	}
+
+	@Test
+	public void noCallsignsMatchNothingButAllRecordsAreCounted() throws IOException {
+		assertThat(reader.read(sampleFile(), new CallsignMatcher(Collections.<String>emptySet()), NO_NR, matched).numRecords, equalTo(35));
+		assertThat(matched, hasSize(0));
+	}
+
+	@Test
+	public void unknownNestedAndNullFieldsAreIgnored() throws IOException {
+		final String json = "[{\"dxcall\":\"GB4IMD\",\"nr\":123,\"extra\":{\"a\":[1,2]},\"comment\":null,\"timeAsTimestamp\":0}," +
+				"{\"dxcall\":\"M0CUV\",\"nr\":\"124\"}]";
+		assertThat(reader.read(stream(json), matcher("IMD"), NO_NR, matched).numRecords, equalTo(2));
+		assertThat(matched, hasSize(1));
+		assertThat(matched.get(0).getDxcall(), equalTo("GB4IMD"));
+		assertThat(matched.get(0).getNr(), equalTo("123"));
+		assertThat(matched.get(0).getComment(), nullValue());
+	}
+
+	@Test
+	public void fieldsAreNotCarriedOverBetweenRecords() throws IOException {
+		final String json = "[{\"dxcall\":\"GB4IMD\",\"comment\":\"first\"},{\"dxcall\":\"GB3IMD\"}]";
+		reader.read(stream(json), matcher("IMD"), NO_NR, matched);
+		assertThat(matched, hasSize(2));
+		assertThat(matched.get(1).getComment(), nullValue());
+	}
+
+	@Test
+	public void readingStopsAtTheFirstKnownRecord() throws IOException {
+		// the sample's newest spot is #14689356; the five newest are all later than #14689351
+		final ReadResult result = reader.read(sampleFile(), matcher("ALL"), 14689351L, matched);
+		assertThat(result.numRecords, equalTo(5));
+		assertThat(result.highestNr, equalTo(14689356L));
+		assertThat(matched, hasSize(5));
+		assertThat(matched.get(4).getNr(), equalTo("14689352"));
+	}
+
+	@Test
+	public void highestNrIsTrackedForUnmatchedRecordsToo() throws IOException {
+		final ReadResult result = reader.read(sampleFile(), matcher("NOSUCHCALL"), NO_NR, matched);
+		assertThat(result.numRecords, equalTo(35));
+		assertThat(result.highestNr, equalTo(14689356L));
+		assertThat(matched, hasSize(0));
+	}
+
+	@Test
+	public void nothingIsReadWhenTheNewestRecordIsKnown() throws IOException {
+		final ReadResult result = reader.read(sampleFile(), matcher("ALL"), 14689356L, matched);
+		assertThat(result.numRecords, equalTo(0));
+		assertThat(result.highestNr, equalTo(NO_NR));
+	}
+
+	@Test
+	public void emptyArray() throws IOException {
+		assertThat(reader.read(stream("[]"), matcher("ALL"), NO_NR, matched).numRecords, equalTo(0));
+	}
+
+	@Test
+	public void notAnArray() throws IOException {
+		thrown.expect(JsonParseException.class);
+		reader.read(stream("{\"dxcall\":\"GB4IMD\"}"), matcher("ALL"), NO_NR, matched);
+	}
+
+	private CallsignMatcher matcher(final String ... callsigns) {
+		return new CallsignMatcher(new HashSet<>(Arrays.asList(callsigns)));
+	}
+
+	private InputStream sampleFile() {
+		return ResourceLoader.getResourceInputStream("pretty_printed_dxcluster.json");
+	}
+
+	private InputStream stream(final String json) {
+		return new ByteArrayInputStream(json.getBytes());
+	}
+}
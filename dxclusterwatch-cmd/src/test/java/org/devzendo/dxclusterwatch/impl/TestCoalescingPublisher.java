@@ -0,0 +1,134 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.commoncode.concurrency.ThreadUtils;
+import org.devzendo.dxclusterwatch.cmd.Publisher;
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestCoalescingPublisher {
+	private final RecordingPublisher delegate = new RecordingPublisher();
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Test
+	public void firstPublishHappensStraightAway() throws InterruptedException {
+		final CoalescingPublisher publisher = new CoalescingPublisher(delegate, 60000L);
+		publisher.publish(Collections.singleton("index.html"));
+
+		assertThat(delegate.firstPublish.await(5, TimeUnit.SECONDS), equalTo(true));
+		assertThat(delegate.getPublishes(), contains(Collections.singleton("index.html")));
+	}
+
+	@Test
+	public void publishesWithinTheWindowAreMergedIntoOne() throws InterruptedException {
+		final CoalescingPublisher publisher = new CoalescingPublisher(delegate, 500L);
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(delegate.firstPublish.await(5, TimeUnit.SECONDS), equalTo(true));
+
+		publisher.publish(Collections.singleton("index.html"));
+		publisher.publish(Collections.singleton("spots.json"));
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(publisher.getCoalesced(), equalTo(2));
+		assertThat(delegate.getPublishes(), hasSize(1));
+
+		ThreadUtils.waitNoInterruption(1000);
+
+		final List<Set<String>> publishes = delegate.getPublishes();
+		assertThat(publishes, hasSize(2));
+		assertThat(publishes.get(1), contains("index.html", "spots.json"));
+		publisher.close();
+	}
+
+	@Test
+	public void pendingPublishHappensOnClose() throws InterruptedException {
+		final CoalescingPublisher publisher = new CoalescingPublisher(delegate, 60000L);
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(delegate.firstPublish.await(5, TimeUnit.SECONDS), equalTo(true));
+		publisher.publish(Collections.singleton("index.html"));
+
+		publisher.close();
+
+		assertThat(delegate.getPublishes(), hasSize(2));
+		assertThat(delegate.closed, equalTo(true));
+	}
+
+	@Test
+	public void failedPublishIsRetriedWithTheNext() throws InterruptedException {
+		delegate.failNext = true;
+		final CoalescingPublisher publisher = new CoalescingPublisher(delegate, 0L);
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(delegate.firstPublish.await(5, TimeUnit.SECONDS), equalTo(true));
+
+		publisher.publish(Collections.singleton("spots.json"));
+		publisher.close();
+
+		final List<Set<String>> publishes = delegate.getPublishes();
+		assertThat(publishes, hasSize(2));
+		// the failed files may be put back before or after the next request's
+		assertThat(publishes.get(1), containsInAnyOrder("index.html", "spots.json"));
+	}
+
+	@Test
+	public void failedPublishIsRetriedWithoutAnotherRequest() throws InterruptedException {
+		delegate.failNext = true;
+		final CoalescingPublisher publisher = new CoalescingPublisher(delegate, 0L, 200L);
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(delegate.firstPublish.await(5, TimeUnit.SECONDS), equalTo(true));
+
+		ThreadUtils.waitNoInterruption(1000);
+
+		final List<Set<String>> publishes = delegate.getPublishes();
+		assertThat(publishes, hasSize(2));
+		assertThat(publishes.get(1), contains("index.html"));
+		publisher.close();
+		assertThat(delegate.getPublishes(), hasSize(2));
+	}
+
+	private static class RecordingPublisher implements Publisher {
+		private final List<Set<String>> publishes = new ArrayList<>();
+		public final CountDownLatch firstPublish = new CountDownLatch(1);
+		public volatile boolean failNext = false;
+		public volatile boolean closed = false;
+
+		@Override
+		public void publish(final Set<String> fileNames) {
+			synchronized (publishes) {
+				publishes.add(new LinkedHashSet<>(fileNames));
+			}
+			firstPublish.countDown();
+			if (failNext) {
+				failNext = false;
+				throw new RuntimeException("push failed");
+			}
+		}
+
+		public List<Set<String>> getPublishes() {
+			synchronized (publishes) {
+				return new ArrayList<>(publishes);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
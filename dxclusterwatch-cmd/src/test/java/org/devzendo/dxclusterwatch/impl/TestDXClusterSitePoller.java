@@ -2,6 +2,8 @@ package org.devzendo.dxclusterwatch.impl;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,6 +32,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sun.jersey.api.client.ClientHandlerException;
+
 @RunWith(MockitoJUnitRunner.class)
 public class TestDXClusterSitePoller {
 	private FakeDXCluster fakeDXCluster;
@@ -78,6 +82,109 @@ public class TestDXClusterSitePoller {
 		verify(config).getServerURI();
 	}
 
+	@Test
+	public void persistedRecordsAreNotReturnedByTheNextPoll() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		when(config.getCallsigns()).thenReturn(callsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		assertThat(sp.poll().length, equalTo(1));
+		// not yet persisted, so returned again
+		assertThat(sp.poll().length, equalTo(1));
+
+		sp.markPersisted();
+		assertThat(sp.poll().length, equalTo(0));
+	}
+
+	@Test
+	public void changingCallsignsReturnsAllMatchingRecordsAgain() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		final HashSet<String> newCallsigns = new HashSet<String>();
+		newCallsigns.add("UA5D");
+		newCallsigns.add("HG225");
+		when(config.getCallsigns()).thenReturn(callsigns, callsigns, newCallsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		assertThat(sp.poll().length, equalTo(1));
+		sp.markPersisted();
+		assertThat(sp.poll().length, equalTo(0));
+
+		assertThat(sp.poll().length, equalTo(4));
+	}
+
+	@Test
+	public void unchangedFeedIsNotSentAgainOncePersisted() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		when(config.getCallsigns()).thenReturn(callsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		assertThat(sp.poll().length, equalTo(1));
+		// not yet persisted, so the validators aren't sent, and the feed is read again
+		assertThat(sp.poll().length, equalTo(1));
+		assertThat(fakeDXCluster.getFullResponses(), equalTo(2));
+
+		sp.markPersisted();
+		assertThat(sp.poll().length, equalTo(0));
+		assertThat(sp.poll().length, equalTo(0));
+		assertThat(fakeDXCluster.getFullResponses(), equalTo(2));
+	}
+
+	@Test
+	public void changedFeedIsSentAgain() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		when(config.getCallsigns()).thenReturn(callsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		assertThat(sp.poll().length, equalTo(1));
+		sp.markPersisted();
+
+		fakeDXCluster.touch();
+		// sent again, but the spots in it are already persisted
+		assertThat(sp.poll().length, equalTo(0));
+		assertThat(fakeDXCluster.getFullResponses(), equalTo(2));
+	}
+
+	@Test
+	public void feedIsRequestedAndDecodedCompressed() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		callsigns.add("HG225");
+		when(config.getCallsigns()).thenReturn(callsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		assertThat(sp.poll().length, equalTo(4));
+		assertThat(fakeDXCluster.getGzipResponses(), equalTo(1));
+	}
+
+	@Test
+	public void stalledServerTimesOut() {
+		final HashSet<String> callsigns = new HashSet<String>();
+		callsigns.add("UA5D");
+		when(config.getCallsigns()).thenReturn(callsigns);
+		when(config.getServerURI()).thenReturn(fakeDXCluster.getURI());
+		when(config.getConnectTimeoutSeconds()).thenReturn(1);
+		when(config.getReadTimeoutSeconds()).thenReturn(1);
+		fakeDXCluster.setResponseDelayMillis(5000);
+
+		final DXClusterSitePoller sp = new DXClusterSitePoller(new File("src/test/resources"), config);
+		final long start = System.currentTimeMillis();
+		try {
+			sp.poll();
+			fail("Should have timed out");
+		} catch (final ClientHandlerException e) {
+			assertThat(System.currentTimeMillis() - start, lessThan(4000L));
+		}
+	}
+
 	@Test
 	public void loadingOfFileWorks() throws JsonParseException, JsonMappingException, IOException {		
 		final ClusterRecord[] records = getRecordsFromSampleFile();
@@ -2,10 +2,15 @@ package org.devzendo.dxclusterwatch.impl;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -28,9 +33,10 @@ public class TestDefaultActivityWatcher {
 	private final ActivityWatcher watcher = new DefaultActivityWatcher(sleeper);
 	
 	private int count;
+	private final List<Stuff> marked = new ArrayList<>();
 	private final MarkPublished doNothingToMarkTweeted = new MarkPublished() {
 		@Override
-		public void markPublished(final ClusterRecord record) {
+		public void markPublished(final Collection<ClusterRecord> records) {
 			// do nothing
 		}};
 		
@@ -82,8 +88,8 @@ public class TestDefaultActivityWatcher {
 		}
 		
 		@Override
-		public void markPublished(final ClusterRecord record) {
-			assert (record == rec);
+		public void markPublished(final Collection<ClusterRecord> records) {
+			assert (records.size() == 1 && records.contains(rec));
 			published = true;
 		}
 	}
@@ -126,12 +132,12 @@ public class TestDefaultActivityWatcher {
 		final ClusterRecordWithDetectablePublishing dp2 = genDP("GB4IMD", minutesFromEpoch(13), "14060.3");
 		assertThat(dp2.isPublished(), equalTo(false));
 		assertThat(watcher.seen(dp2.rec, dp2), equalTo(false));
-		assertThat(dp2.isPublished(), equalTo(true)); // immediate discard duplicate
+		assertThat(dp2.isPublished(), equalTo(false)); // duplicate is marked with the next tweet
 		
 		final ClusterRecordWithDetectablePublishing dp3 = genDP("GB4IMD", minutesFromEpoch(24), "14060.3");
 		assertThat(dp3.isPublished(), equalTo(false));
 		assertThat(watcher.seen(dp3.rec, dp3), equalTo(false));
-		assertThat(dp3.isPublished(), equalTo(true)); // immediate discard duplicate
+		assertThat(dp3.isPublished(), equalTo(false)); // duplicate is marked with the next tweet
 
 		assertThat(watcher.latestTweetableActivity(), equalTo("GB4IMD (14060 00:20)"));
 		assertThat(dp1.isPublished(), equalTo(true));
@@ -181,17 +187,38 @@ public class TestDefaultActivityWatcher {
 	
 	private class TweetMarkPublishCounter implements MarkPublished {
 		final Set<Integer> frequencies = new HashSet<>();
+		int batches = 0;
 
 		public int count() {
 			return frequencies.size();
 		}
 		
 		@Override
-		public void markPublished(final ClusterRecord record) {
-			System.out.println("Marking as published: " + record);
-			frequencies.add(DefaultActivityWatcher.toInt(record.getFreq()));
+		public void markPublished(final Collection<ClusterRecord> records) {
+			batches++;
+			for (final ClusterRecord record : records) {
+				System.out.println("Marking as published: " + record);
+				frequencies.add(DefaultActivityWatcher.toInt(record.getFreq()));
+			}
 		}
 	}
+
+	@Test
+	public void recordsInATweetAreMarkedAsPublishedInOneBatch() {
+		final TweetMarkPublishCounter counter = new TweetMarkPublishCounter();
+		watcher.seen(gen("GB4IMD", minutesFromEpoch(20), "14060.3"), counter);
+		watcher.seen(gen("GB4IMD", minutesFromEpoch(13), "7040.7"), counter);
+		watcher.seen(gen("GB4IMD", minutesFromEpoch(22), "7040.2"), counter); // duplicate
+		watcher.seen(gen("IZ1IMD", minutesFromEpoch(24), "3580.2"), counter);
+		assertThat(counter.batches, equalTo(0));
+
+		assertThat(watcher.latestTweetableActivity(), equalTo("GB4IMD (7040 00:13, 14060 00:20)\nIZ1IMD (3580 00:24)"));
+		assertThat(counter.batches, equalTo(1));
+		assertThat(counter.count(), equalTo(3));
+
+		assertThat(watcher.latestTweetableActivity(), equalTo(""));
+		assertThat(counter.batches, equalTo(1));
+	}
 	
 	@Test
 	public void splitMultipleCallsIntoMultipleTweets() {
@@ -217,12 +244,26 @@ public class TestDefaultActivityWatcher {
 		assertThat(watcher.latestTweetableActivity(), equalTo(""));
 	}
 
+	@Test
+	public void callsignsAreOrderedOnTheirEarliestUntweetedEntry() {
+		watcher.seen(gen("GB4IMD", minutesFromEpoch(10), "14060.3"), doNothingToMarkTweeted);
+		assertThat(watcher.latestTweetableActivity(), equalTo("GB4IMD (14060 00:10)"));
+
+		watcher.seen(gen("IZ1IMD", minutesFromEpoch(20), "7040.7"), doNothingToMarkTweeted);
+		watcher.seen(gen("GB4IMD", minutesFromEpoch(30), "3580.2"), doNothingToMarkTweeted);
+
+		assertThat(watcher.latestTweetableActivity(), equalTo("IZ1IMD (7040 00:20)\nGB4IMD (3580 00:30)"));
+		assertThat(watcher.numEntries(), equalTo(3));
+		assertThat(watcher.numCallsigns(), equalTo(2));
+	}
+
 	@Test
 	public void joinWhileStillFitsDoesNotFit() {
 		final Stuff s1 = new Stuff(IRRELEVANT_CLUSTER_RECORD, minutesFromEpoch(1), 0, IRRELEVANT_EXPIRY_TIME, doNothingToMarkTweeted);
 		
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(6, asList(s1)), equalTo(""));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(6, asList(s1), marked), equalTo(""));
 		assertThat(s1.tweeted, equalTo(false));
+		assertThat(marked, empty());
 	}
 
 	@Test
@@ -232,11 +273,11 @@ public class TestDefaultActivityWatcher {
 		
 		final List<Stuff> list = asList(s1, s2);
 		
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(7, list), equalTo("1 00:01"));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(7, list, marked), equalTo("1 00:01"));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(false));
 
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(7, list), equalTo("2 00:02"));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(7, list, marked), equalTo("2 00:02"));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(true));
 	}
@@ -248,11 +289,11 @@ public class TestDefaultActivityWatcher {
 		
 		final List<Stuff> list = asList(s1, s2);
 		
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list), equalTo("1 00:01"));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list, marked), equalTo("1 00:01"));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(false));
 
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list), equalTo("2 00:02"));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list, marked), equalTo("2 00:02"));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(true));
 	}
@@ -265,15 +306,31 @@ public class TestDefaultActivityWatcher {
 		
 		final List<Stuff> list = asList(s1, s2);
 		
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(16, list), equalTo("1 00:01, 2 00:02"));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(16, list, marked), equalTo("1 00:01, 2 00:02"));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(true));
+		assertThat(marked, contains(s1, s2));
 
-		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list), equalTo(""));
+		assertThat(DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(15, list, marked), equalTo(""));
 		assertThat(s1.tweeted, equalTo(true));
 		assertThat(s2.tweeted, equalTo(true));
 	}
 
+	@Test
+	public void joinWhileStillFitsPacksTheLongestPrefixOfManyEntries() {
+		final List<Stuff> list = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			list.add(new Stuff(IRRELEVANT_CLUSTER_RECORD, minutesFromEpoch(5000 - i), 1, IRRELEVANT_EXPIRY_TIME, doNothingToMarkTweeted));
+		}
+
+		// each is "1 HH:MM", so 15 of them and their separators take 133 characters
+		final String joined = DefaultActivityWatcher.joinWhileStillFitsAndMarkTweeted(140, list, marked);
+		assertThat(joined.length(), equalTo(133));
+		assertThat(marked, hasSize(15));
+		assertThat(marked.get(0).when, equalTo(minutesFromEpoch(1)));
+		assertThat(marked.get(14).when, equalTo(minutesFromEpoch(15)));
+	}
+
 	@Test
 	public void emptyWatcher() {
 		assertThat(watcher.latestTweetableActivity(), equalTo(""));
@@ -0,0 +1,65 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestDirectoryPublisher {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public final TemporaryFolder tempDir = new TemporaryFolder();
+	private File siteRepo;
+	private File publishDir;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Before
+	public void setupDirectories() throws IOException {
+		tempDir.create();
+		siteRepo = tempDir.newFolder("site.repo");
+		publishDir = tempDir.newFolder("htdocs");
+	}
+
+	@Test
+	public void filesAreCopiedAndReplaced() throws IOException {
+		final DirectoryPublisher publisher = new DirectoryPublisher(siteRepo, publishDir);
+		write(new File(siteRepo, "index.html"), "first");
+		publisher.publish(Collections.singleton("index.html"));
+		assertThat(read(new File(publishDir, "index.html")), equalTo("first"));
+
+		write(new File(siteRepo, "index.html"), "second");
+		publisher.publish(Collections.singleton("index.html"));
+
+		assertThat(read(new File(publishDir, "index.html")), equalTo("second"));
+		assertThat(new File(publishDir, "index.html.tmp").exists(), equalTo(false));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void missingFileCannotBePublished() {
+		new DirectoryPublisher(siteRepo, publishDir).publish(Collections.singleton("index.html"));
+	}
+
+	private void write(final File file, final String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(UTF8));
+	}
+
+	private String read(final File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), UTF8);
+	}
+}
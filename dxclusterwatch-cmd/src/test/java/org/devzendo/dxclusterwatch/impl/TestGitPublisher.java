@@ -0,0 +1,104 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestGitPublisher {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public final TemporaryFolder tempDir = new TemporaryFolder();
+	private Git remote;
+	private File siteRepo;
+	private GitPublisher publisher;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Before
+	public void setupRepositories() throws IOException, GitAPIException {
+		tempDir.create();
+		final File remoteDir = tempDir.newFolder("remote.git");
+		remote = Git.init().setBare(true).setDirectory(remoteDir).call();
+		siteRepo = new File(tempDir.getRoot(), "site.repo");
+		Git.cloneRepository().setURI(remoteDir.toURI().toString()).setDirectory(siteRepo).call().close();
+		publisher = new GitPublisher(siteRepo);
+	}
+
+	@After
+	public void closeRepositories() {
+		publisher.close();
+		remote.close();
+	}
+
+	@Test
+	public void changedFileIsCommittedAndPushed() throws IOException, GitAPIException {
+		write("index.html", "first");
+		publisher.publish(Collections.singleton("index.html"));
+		write("index.html", "second");
+		publisher.publish(Collections.singleton("index.html"));
+
+		assertThat(remoteCommits(), equalTo(2));
+	}
+
+	@Test
+	public void unchangedFileIsNotCommitted() throws IOException, GitAPIException {
+		write("index.html", "first");
+		publisher.publish(Collections.singleton("index.html"));
+
+		publisher.publish(Collections.singleton("index.html"));
+
+		assertThat(remoteCommits(), equalTo(1));
+	}
+
+	@Test
+	public void commitWhosePushFailedIsPushedByTheNextPublish() throws IOException, GitAPIException {
+		final File remoteDir = new File(tempDir.getRoot(), "remote.git");
+		final File unreachable = new File(tempDir.getRoot(), "unreachable.git");
+		write("index.html", "first");
+		assertThat(remoteDir.renameTo(unreachable), equalTo(true));
+		try {
+			publisher.publish(Collections.singleton("index.html"));
+			fail("The push should have failed");
+		} catch (final RuntimeException re) {
+			// expected
+		}
+		assertThat(unreachable.renameTo(remoteDir), equalTo(true));
+
+		publisher.publish(Collections.singleton("index.html"));
+
+		assertThat(remoteCommits(), equalTo(1));
+	}
+
+	private void write(final String fileName, final String content) throws IOException {
+		Files.write(new File(siteRepo, fileName).toPath(), content.getBytes(UTF8));
+	}
+
+	private int remoteCommits() throws GitAPIException {
+		int commits = 0;
+		for (@SuppressWarnings("unused") final RevCommit commit : remote.log().call()) {
+			commits++;
+		}
+		return commits;
+	}
+}
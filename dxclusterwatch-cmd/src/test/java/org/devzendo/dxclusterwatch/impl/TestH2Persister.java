@@ -1,13 +1,23 @@
 package org.devzendo.dxclusterwatch.impl;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
@@ -64,19 +74,45 @@ public class TestH2Persister {
 
 	@Test
 	public void newRecordIsTrueOnFirstPersist() throws Exception {
-		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), equalTo(1));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), hasSize(1));
 	}
 
 	@Test
 	public void newRecordIsFalseOnSecondPersist() throws Exception {
-		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), equalTo(1));
-		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), equalTo(0));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), hasSize(1));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), hasSize(0));
 	}
 
 	@Test
 	public void countOfNewRecords() throws Exception {
-		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1, dbRecord2, dbRecord3, dbRecord3, dbRecord4 }), equalTo(4));
-		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), equalTo(0));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1, dbRecord2, dbRecord3, dbRecord3, dbRecord4 }), hasSize(4));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), hasSize(0));
+	}
+
+	@Test
+	public void countOfNewRecordsInLargeBatchesThatOverlap() throws Exception {
+		assertThat(store.persistRecords(generateRecords(1, 700)), hasSize(700));
+		assertThat(store.persistRecords(generateRecords(351, 1400)), hasSize(700));
+		assertThat(store.persistRecords(generateRecords(1, 1400)), hasSize(0));
+	}
+
+	@Test
+	public void allRecordsInALargeBatchAreStored() throws Exception {
+		store.persistRecords(generateRecords(1, 1200));
+
+		final List<ClusterRecord> records = store.getRecords();
+		assertThat(records, hasSize(5));
+		assertThat(records.get(0).getNr(), equalTo("1200"));
+		assertThat(records.get(4).getNr(), equalTo("1196"));
+		assertThat(store.getNextRecordToTweet().getNr(), equalTo("1"));
+	}
+
+	private ClusterRecord[] generateRecords(final int firstNr, final int lastNr) {
+		final ClusterRecord[] records = new ClusterRecord[lastNr - firstNr + 1];
+		for (int nr = firstNr; nr <= lastNr; nr++) {
+			records[nr - firstNr] = ClusterRecord.dbRecord(nr, "GB4IMD", "M0CUV", when(nr), "14060", "Spot " + nr);
+		}
+		return records;
 	}
 
 	@Test
@@ -110,6 +146,31 @@ public class TestH2Persister {
 		assertThat(store.getNextRecordToTweet(), nullValue());
 	}
 
+	@Test
+	public void manyRecordsCanBeMarkedTweetedAtOnce() throws Exception {
+		store.persistRecords(generateRecords(1, 1200));
+
+		final List<ClusterRecord> tweeted = new ArrayList<>();
+		for (final ClusterRecord record : generateRecords(1, 1199)) {
+			tweeted.add(record);
+		}
+		store.markTweeted(tweeted);
+
+		final List<ClusterRecord> untweeted = store.getUntweetedRecords();
+		assertThat(untweeted, hasSize(1));
+		assertThat(untweeted.get(0).getNr(), equalTo("1200"));
+	}
+
+	@Test
+	public void markingMissingRecordsTweetedIsHarmless() throws Exception {
+		store.persistRecords(new ClusterRecord[] { dbRecord1, dbRecord2 });
+
+		store.markTweeted(Arrays.asList(dbRecord1, dbRecord3));
+		store.markTweeted(new ArrayList<ClusterRecord>());
+
+		assertThat(store.getNextRecordToTweet().getNr(), equalTo("2"));
+	}
+
 	@Test
 	public void readRecords() throws Exception {
 		store.persistRecords(new ClusterRecord[] { dbRecord1, dbRecord3, dbRecord2, dbRecord4 });
@@ -193,6 +254,191 @@ public class TestH2Persister {
 		assertThat(store.getEarliestTimeRecord(), equalTo(ago80));
 	}
 
+	@Test
+	public void newDatabaseIsAtTheLatestSchemaVersion() throws Exception {
+		assertThat(((H2Persister) store).getSchemaVersion(), equalTo(H2Persister.SCHEMA_VERSION));
+		assertThat(spotsIndexes(root), hasItems("SPOTSTWEETEDWHEN", "SPOTSWHEN"));
+	}
+
+	@Test
+	public void unversionedDatabaseIsMigrated() throws Exception {
+		final File oldRoot = tempDir.newFolder("old");
+		final Connection connection = connect(oldRoot);
+		try {
+			final Statement statement = connection.createStatement();
+			statement.execute("CREATE TABLE Spots(nr INT, dxcall VARCHAR(25), call VARCHAR(25), when TIMESTAMP, freq VARCHAR(25), comment VARCHAR(128), tweeted BOOLEAN, PRIMARY KEY(nr))");
+			statement.execute("INSERT INTO Spots VALUES (1, 'GB4IMD', 'M0CUV', '1970-01-01 00:00:20', '14060', 'Hi Matt', FALSE)");
+		} finally {
+			connection.close();
+		}
+
+		final H2Persister oldStore = new H2Persister(oldRoot, 5);
+		try {
+			assertThat(oldStore.getSchemaVersion(), equalTo(H2Persister.SCHEMA_VERSION));
+			assertThat(spotsIndexes(oldRoot), hasItems("SPOTSTWEETEDWHEN", "SPOTSWHEN"));
+			assertThat(oldStore.getNextRecordToTweet().getNr(), equalTo("1"));
+		} finally {
+			oldStore.close();
+		}
+
+		// and it's not migrated again
+		final H2Persister reopenedStore = new H2Persister(oldRoot, 5);
+		try {
+			assertThat(reopenedStore.getSchemaVersion(), equalTo(H2Persister.SCHEMA_VERSION));
+		} finally {
+			reopenedStore.close();
+		}
+	}
+
+	@Test
+	public void recentSpotsAreFilledWhenOpenedAndAddedToWhenStored() throws Exception {
+		store.persistRecords(new ClusterRecord[] { dbRecord2, dbRecord1, dbRecord3 });
+		store.close();
+
+		final SpotRingBuffer recentSpots = new SpotRingBuffer(2);
+		store = new H2Persister(root, 5, 1, recentSpots);
+		List<ClusterRecord> recent = recentSpots.getRecords();
+		assertThat(recent, hasSize(2));
+		assertThat(recent.get(0).getNr(), equalTo("3"));
+		assertThat(recent.get(1).getNr(), equalTo("2"));
+
+		store.persistRecords(new ClusterRecord[] { dbRecord3, dbRecord4 });
+		recent = recentSpots.getRecords();
+		assertThat(recent.get(0).getNr(), equalTo("4"));
+		assertThat(recent.get(0).getTimeAsTimestamp(), equalTo(dbRecord4.getTimeAsTimestamp()));
+		assertThat(recent.get(1).getNr(), equalTo("3"));
+		assertThat(recentSpots.getSequence(), equalTo(3L));
+	}
+
+	@Test
+	public void feedRecordTimeIsStoredAsATimestamp() throws Exception {
+		final ClusterRecord feedRecord = new ClusterRecord();
+		feedRecord.setNr("8");
+		feedRecord.setDxcall("GB4IMD");
+		feedRecord.setCall("M0CUV");
+		feedRecord.setTime("2016-04-18 07:01:00");
+		feedRecord.setFreq("14060");
+		feedRecord.setComment("");
+		final List<ClusterRecord> newRecords = store.persistRecords(new ClusterRecord[] { feedRecord });
+		assertThat(newRecords, hasSize(1));
+		assertThat(newRecords.get(0).getTimeAsTimestamp(), equalTo(Timestamp.valueOf("2016-04-18 07:01:00")));
+
+		final List<ClusterRecord> records = store.getRecordsBetween(Timestamp.valueOf("2016-04-18 07:00:00"), Timestamp.valueOf("2016-04-18 07:02:00"));
+		assertThat(records, hasSize(1));
+		assertThat(records.get(0).getTimeAsTimestamp(), equalTo(Timestamp.valueOf("2016-04-18 07:01:00")));
+	}
+
+	@Test
+	public void recordsBetweenUsesTheWhenIndex() throws Exception {
+		store.persistRecords(generateRecords(1, 500));
+
+		assertThat(plan(H2Persister.RECORDS_BETWEEN_SQL, when(100), when(200)), containsString("PUBLIC.SPOTSWHEN: WHEN >= ?1"));
+	}
+
+	@Test
+	public void untweetedRecordsUseTheTweetedWhenIndex() throws Exception {
+		store.persistRecords(generateRecords(1, 500));
+
+		assertThat(plan(H2Persister.UNTWEETED_RECORDS_SQL), containsString("PUBLIC.SPOTSTWEETEDWHEN: TWEETED = FALSE"));
+		assertThat(plan(H2Persister.NEXT_RECORD_TO_TWEET_SQL), containsString("PUBLIC.SPOTSTWEETEDWHEN: TWEETED = FALSE"));
+	}
+
+	@Test
+	public void earliestTimeRecordIsReadInWhenIndexOrder() throws Exception {
+		store.persistRecords(generateRecords(1, 500));
+
+		final String plan = plan(H2Persister.EARLIEST_TIME_RECORD_SQL);
+		assertThat(plan, containsString("PUBLIC.SPOTSWHEN"));
+		assertThat(plan, containsString("index sorted"));
+	}
+
+	@Test
+	public void timeOfNewest() throws Exception {
+		assertThat(store.getTimeOfNewest(1), nullValue());
+		store.persistRecords(new ClusterRecord[] { dbRecord1, dbRecord3, dbRecord2 });
+
+		assertThat(store.getTimeOfNewest(1), equalTo(when(35)));
+		assertThat(store.getTimeOfNewest(3), equalTo(when(20)));
+		assertThat(store.getTimeOfNewest(4), nullValue());
+	}
+
+	@Test
+	public void tweetedRecordsBeforeAreOldestFirstAndLimited() throws Exception {
+		store.persistRecords(new ClusterRecord[] { dbRecord4, dbRecord1, dbRecord3, dbRecord2 });
+		store.markTweeted(Arrays.asList(dbRecord1, dbRecord2, dbRecord3, dbRecord4));
+
+		final List<ClusterRecord> records = store.getTweetedRecordsBefore(when(40), 2);
+		assertThat(records, hasSize(2));
+		assertThat(records.get(0).getNr(), equalTo("1"));
+		assertThat(records.get(1).getNr(), equalTo("2"));
+	}
+
+	@Test
+	public void untweetedRecordsAreNotAmongThoseBefore() throws Exception {
+		store.persistRecords(new ClusterRecord[] { dbRecord4, dbRecord1, dbRecord3, dbRecord2 });
+		store.markTweeted(Arrays.asList(dbRecord2, dbRecord4));
+
+		final List<ClusterRecord> records = store.getTweetedRecordsBefore(when(40), 10);
+		assertThat(records, hasSize(1));
+		assertThat(records.get(0).getNr(), equalTo("2"));
+	}
+
+	@Test
+	public void recordsCanBeDeleted() throws Exception {
+		store.persistRecords(generateRecords(1, 1200));
+
+		assertThat(store.deleteRecords(Arrays.asList(generateRecords(1, 1100))), equalTo(1100));
+
+		assertThat(store.getEarliestTimeRecord(), equalTo(when(1101)));
+		assertThat(store.persistRecords(generateRecords(1, 1200)), hasSize(1100));
+	}
+
+	@Test
+	public void databaseIsUsableAfterCompaction() throws Exception {
+		store.persistRecords(generateRecords(1, 1200));
+		store.deleteRecords(Arrays.asList(generateRecords(1, 1000)));
+
+		store.compact();
+
+		assertThat(store.getEarliestTimeRecord(), equalTo(when(1001)));
+		assertThat(store.persistRecords(new ClusterRecord[] { dbRecord1 }), hasSize(1));
+	}
+
+	private String plan(final String sql, final Timestamp... parameters) throws SQLException {
+		final Connection connection = connect(root);
+		try {
+			final PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql);
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setTimestamp(i + 1, parameters[i]);
+			}
+			final ResultSet rs = statement.executeQuery();
+			rs.next();
+			final String plan = rs.getString(1);
+			LOGGER.debug("Plan for {}: {}", sql, plan);
+			return plan;
+		} finally {
+			connection.close();
+		}
+	}
+
+	private List<String> spotsIndexes(final File dbRoot) throws SQLException {
+		final List<String> indexes = new ArrayList<>();
+		final Connection connection = connect(dbRoot);
+		try {
+			final ResultSet rs = connection.createStatement().executeQuery("SELECT DISTINCT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'SPOTS'");
+			while (rs.next()) {
+				indexes.add(rs.getString(1));
+			}
+		} finally {
+			connection.close();
+		}
+		return indexes;
+	}
+
+	private Connection connect(final File dbRoot) throws SQLException {
+		return DriverManager.getConnection("jdbc:h2:" + new File(dbRoot, "dxclusterwatch").getAbsolutePath(), "sa", "");
+	}
+
 	private Timestamp ago(final long minutesAgo) {
 		final long millisecondsAgo = System.currentTimeMillis() - (minutesAgo * 60000);
 		return new Timestamp(millisecondsAgo);
@@ -0,0 +1,127 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPooledH2Persister {
+	@Rule
+	public final TemporaryFolder tempDir = new TemporaryFolder();
+	private H2Persister store;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Before
+	public void setupStore() throws IOException {
+		tempDir.create();
+		store = new H2Persister(tempDir.getRoot(), 5, 4);
+	}
+
+	@After
+	public void closeStore() {
+		store.close();
+	}
+
+	@Test
+	public void recordsAreStoredAndRead() {
+		assertThat(store.persistRecords(generateRecords(1, 10)), hasSize(10));
+		assertThat(store.persistRecords(generateRecords(5, 15)), hasSize(5));
+
+		final List<ClusterRecord> records = store.getRecords();
+		assertThat(records, hasSize(5));
+		assertThat(records.get(0).getNr(), equalTo("15"));
+		assertThat(store.getNextRecordToTweet().getNr(), equalTo("1"));
+	}
+
+	@Test
+	public void readsRunAlongsideWrites() throws InterruptedException {
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		final CountDownLatch writesDone = new CountDownLatch(1);
+		final Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int batch = 0; batch < 20; batch++) {
+						store.persistRecords(generateRecords(batch * 500 + 1, batch * 500 + 500));
+					}
+				} catch (final Throwable t) {
+					failures.add(t);
+				} finally {
+					writesDone.countDown();
+				}
+			}
+		});
+		final List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			readers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (writesDone.getCount() > 0) {
+							final List<ClusterRecord> records = store.getRecords();
+							if (!records.isEmpty() && records.size() != 5) {
+								throw new IllegalStateException("Read " + records.size() + " records");
+							}
+							store.getUntweetedRecords();
+						}
+					} catch (final Throwable t) {
+						failures.add(t);
+					}
+				}
+			}));
+		}
+		writer.start();
+		for (final Thread reader : readers) {
+			reader.start();
+		}
+
+		assertThat(writesDone.await(60, TimeUnit.SECONDS), equalTo(true));
+		for (final Thread reader : readers) {
+			reader.join();
+		}
+
+		assertThat(failures, empty());
+		assertThat(store.getTimeOfNewest(10000), equalTo(new Timestamp(1000L)));
+	}
+
+	@Test
+	public void poolIsReopenedAfterCompaction() {
+		store.persistRecords(generateRecords(1, 1000));
+		store.deleteRecords(Arrays.asList(generateRecords(1, 900)));
+
+		store.compact();
+
+		assertThat(store.getRecordsBetween(new Timestamp(0L), new Timestamp(Long.MAX_VALUE / 2)), hasSize(100));
+		assertThat(store.persistRecords(generateRecords(1, 10)), hasSize(10));
+	}
+
+	private ClusterRecord[] generateRecords(final int firstNr, final int lastNr) {
+		final ClusterRecord[] records = new ClusterRecord[lastNr - firstNr + 1];
+		for (int nr = firstNr; nr <= lastNr; nr++) {
+			records[nr - firstNr] = ClusterRecord.dbRecord(nr, "GB4IMD", "M0CUV", new Timestamp(nr * 1000L), "14060", "Spot " + nr);
+		}
+		return records;
+	}
+}
@@ -6,6 +6,8 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -15,6 +17,7 @@ import java.util.Set;
 
 import org.devzendo.commoncode.concurrency.ThreadUtils;
 import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.cmd.PublisherType;
 import org.devzendo.dxclusterwatch.impl.PropertiesConfig;
 import org.devzendo.dxclusterwatch.test.ConfigUnittest;
 import org.devzendo.dxclusterwatch.test.LoggingUnittest;
@@ -252,6 +255,50 @@ public class TestPropertiesConfig {
 	}
 
 
+	@Test
+	public void absentOptionalIntegerIsDefaulted() throws Exception {
+		assertThat(PropertiesConfig.mayBePositiveInteger("readTimeoutSeconds", null, 30), equalTo(30));
+		assertThat(PropertiesConfig.mayBePositiveInteger("readTimeoutSeconds", " ", 30), equalTo(30));
+	}
+
+	@Test
+	public void presentOptionalIntegerIsUsed() throws Exception {
+		assertThat(PropertiesConfig.mayBePositiveInteger("readTimeoutSeconds", " 5 ", 30), equalTo(5));
+	}
+
+	@Test
+	public void optionalIntegerMustBePositive() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(containsString("Property 'readTimeoutSeconds' must be positive, not 0"));
+
+		PropertiesConfig.mayBePositiveInteger("readTimeoutSeconds", "0", 30);
+	}
+
+	@Test
+	public void optionalIntegerMayBeAtLeastAMinimum() throws Exception {
+		assertThat(PropertiesConfig.mayBeInteger("publishWindowSeconds", "0", 60, 0), equalTo(0));
+
+		thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(containsString("Property 'publishWindowSeconds' must be at least 0, not -1"));
+
+		PropertiesConfig.mayBeInteger("publishWindowSeconds", "-1", 60, 0);
+	}
+
+	@Test
+	public void publisherType() throws Exception {
+		assertThat(PropertiesConfig.mayBePublisherType("publisher", null, PublisherType.HG), equalTo(PublisherType.HG));
+		assertThat(PropertiesConfig.mayBePublisherType("publisher", " Git ", PublisherType.HG), equalTo(PublisherType.GIT));
+		assertThat(PropertiesConfig.mayBePublisherType("publisher", "directory", PublisherType.HG), equalTo(PublisherType.DIRECTORY));
+	}
+
+	@Test
+	public void notAPublisherType() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(containsString("svn is not a publisher; use one of [hg, git, directory]"));
+
+		PropertiesConfig.mayBePublisherType("publisher", "svn", PublisherType.HG);
+	}
+
 	@Test
 	public void nullBoolean() throws Exception {
 		thrown.expect(IllegalArgumentException.class);
@@ -345,6 +392,39 @@ public class TestPropertiesConfig {
 		assertThat(config.isPageUpdatingEnabled(), equalTo(true));
 		assertThat(config.isTweetingEnabled(), equalTo(false));
 		assertThat(config.getServerURI(), equalTo(URI.create("http://localhost:5645")));
+		assertThat(config.getConnectTimeoutSeconds(), equalTo(10));
+		assertThat(config.getReadTimeoutSeconds(), equalTo(30));
+		assertThat(config.getMaxConnections(), equalTo(2));
+		assertThat(config.getPublisher(), equalTo(PublisherType.HG));
+		assertThat(config.getPublishDirectory(), nullValue());
+		assertThat(config.getPublishWindowSeconds(), equalTo(60));
+		assertThat(config.getPageMinIntervalSeconds(), equalTo(120));
+		assertThat(config.getPageMaxStalenessSeconds(), equalTo(600));
+		assertThat(config.getRetentionDays(), equalTo(0));
+		assertThat(config.getRetentionMaxRecords(), equalTo(0));
+		assertThat(config.getArchiveDirectory(), nullValue());
+		assertThat(config.getCompactIntervalHours(), equalTo(24));
+		assertThat(config.getDatabaseConnections(), equalTo(4));
+	}
+
+	@Test
+	public void directoryPublisherNeedsNoHg() throws IOException {
+		final File tempFile = ConfigUnittest.createSampleConfig(root, true);
+		final File publishDir = tempDir.newFolder("htdocs");
+		final FileWriter fileWriter = new FileWriter(tempFile, true);
+		try {
+			fileWriter.write("publisher=directory" + System.getProperty("line.separator"));
+			fileWriter.write("publishDirectory=" + publishDir.getAbsolutePath() + System.getProperty("line.separator"));
+			fileWriter.write("hgExecutablePath=" + System.getProperty("line.separator"));
+			fileWriter.write("publishWindowSeconds=0" + System.getProperty("line.separator"));
+		} finally {
+			fileWriter.close();
+		}
+		final Config config = new PropertiesConfig(tempFile);
+		assertThat(config.getPublisher(), equalTo(PublisherType.DIRECTORY));
+		assertThat(config.getPublishDirectory(), equalTo(publishDir));
+		assertThat(config.getHgExecutablePath(), nullValue());
+		assertThat(config.getPublishWindowSeconds(), equalTo(0));
 	}
 
 	@Test
@@ -370,4 +450,42 @@ public class TestPropertiesConfig {
 
 		assertThat(config.hasChanged(), equalTo(false));
 	}
+
+	@Test
+	public void changesAreNotCheckedForMoreOftenThanTheCheckInterval() throws IOException {
+		final File tempFile = ConfigUnittest.createSampleConfig(root, true);
+		final Config config = new PropertiesConfig(tempFile, 60000L);
+		assertThat(config.isFeedReadingEnabled(), equalTo(true));
+
+		ThreadUtils.waitNoInterruption(2000);
+		ConfigUnittest.createSampleConfig(root, false);
+
+		assertThat(config.hasChanged(), equalTo(true));
+		// not checked again yet
+		assertThat(config.isFeedReadingEnabled(), equalTo(true));
+	}
+
+	@Test
+	public void invalidChangeLeavesPreviousConfigInUse() throws IOException {
+		final File tempFile = ConfigUnittest.createSampleConfig(root, true);
+		final Config config = new PropertiesConfig(tempFile, 0L);
+		assertThat(config.getPollMinutes(), equalTo(1));
+
+		ThreadUtils.waitNoInterruption(2000);
+		final FileWriter fileWriter = new FileWriter(tempFile, true);
+		try {
+			fileWriter.write("pollMinutes=soon" + System.getProperty("line.separator"));
+		} finally {
+			fileWriter.close();
+		}
+
+		try {
+			config.getPollMinutes();
+			fail("Should have rejected the invalid pollMinutes");
+		} catch (final IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString("soon is not an integer"));
+		}
+		assertThat(config.getPollMinutes(), equalTo(1));
+		assertThat(config.getCallsigns(), containsInAnyOrder("M0CUV", "2E0SQL"));
+	}
 }
@@ -0,0 +1,189 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Config;
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestRetentionJob {
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	@Rule
+	public final TemporaryFolder tempDir = new TemporaryFolder();
+
+	@Mock
+	private Config config;
+
+	private H2Persister persister;
+	private RetentionJob retentionJob;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@Before
+	public void setupPersister() throws IOException {
+		tempDir.create();
+		persister = new H2Persister(tempDir.newFolder("db"), 5);
+		retentionJob = new RetentionJob(config, persister);
+	}
+
+	@After
+	public void closePersister() {
+		retentionJob.stop();
+		persister.close();
+	}
+
+	@Test
+	public void nothingIsPrunedByDefault() {
+		persistTweeted(recordsDaysAgo(1, 10, 10));
+
+		assertThat(retentionJob.prune(), equalTo(0));
+	}
+
+	@Test
+	public void recordsOlderThanTheRetentionPeriodArePruned() {
+		when(config.getRetentionDays()).thenReturn(5);
+		persistTweeted(recordsDaysAgo(1, 10, 10)); // 10 days ago down to 1 day ago
+
+		assertThat(retentionJob.prune(), equalTo(5));
+		assertThat(persister.getTweetedRecordsBefore(new Timestamp(System.currentTimeMillis()), 100), hasSize(5));
+	}
+
+	@Test
+	public void untweetedRecordsOlderThanTheRetentionPeriodAreKept() {
+		when(config.getRetentionDays()).thenReturn(5);
+		final ClusterRecord[] records = recordsDaysAgo(1, 10, 10);
+		persister.persistRecords(records);
+		persister.markTweeted(Arrays.asList(records).subList(2, 10)); // the oldest two are still to be tweeted
+
+		assertThat(retentionJob.prune(), equalTo(3));
+		assertThat(persister.getUntweetedRecords(), hasSize(2));
+		assertThat(persister.getRecordsBetween(new Timestamp(0L), new Timestamp(System.currentTimeMillis())), hasSize(7));
+	}
+
+	@Test
+	public void recordsBeyondTheMaximumNumberArePrunedInBatches() {
+		when(config.getRetentionMaxRecords()).thenReturn(100);
+		final int total = RetentionJob.BATCH_SIZE * 2 + 500;
+		persistTweeted(recordsDaysAgo(1, total, 1));
+
+		assertThat(retentionJob.prune(), equalTo(total - 100));
+		assertThat(persister.getTimeOfNewest(100), equalTo(persister.getEarliestTimeRecord()));
+		assertThat(persister.getTimeOfNewest(101), equalTo(null));
+	}
+
+	@Test
+	public void untweetedRecordsBeyondTheMaximumNumberAreKept() {
+		when(config.getRetentionMaxRecords()).thenReturn(100);
+		final int total = RetentionJob.BATCH_SIZE + 500;
+		final ClusterRecord[] records = recordsDaysAgo(1, total, 1);
+		persister.persistRecords(records);
+		persister.markTweeted(Arrays.asList(records).subList(50, total)); // the oldest 50 are still to be tweeted
+
+		assertThat(retentionJob.prune(), equalTo(total - 150));
+		assertThat(persister.getUntweetedRecords(), hasSize(50));
+		assertThat(persister.getTimeOfNewest(150), equalTo(persister.getEarliestTimeRecord()));
+		assertThat(persister.getTimeOfNewest(151), equalTo(null));
+	}
+
+	@Test
+	public void prunedRecordsAreArchivedByDay() throws IOException {
+		final File archive = tempDir.newFolder("archive");
+		when(config.getArchiveDirectory()).thenReturn(archive);
+		when(config.getRetentionDays()).thenReturn(5);
+		persistTweeted(recordsDaysAgo(1, 10, 10));
+
+		retentionJob.prune();
+
+		final File[] files = archive.listFiles();
+		assertThat(files.length, equalTo(5));
+		final List<String> lines = new ArrayList<>();
+		for (final File file : files) {
+			lines.addAll(readGzip(file));
+		}
+		assertThat(lines, hasSize(5));
+	}
+
+	@Test
+	public void recordsThatCannotAllBeArchivedAreNeitherArchivedNorPruned() throws IOException {
+		final File archive = tempDir.newFolder("archive");
+		when(config.getArchiveDirectory()).thenReturn(archive);
+		when(config.getRetentionDays()).thenReturn(5);
+		final ClusterRecord[] records = recordsDaysAgo(1, 10, 10);
+		persistTweeted(records);
+		// the newest day to be archived can't be written, after the others have been
+		final SimpleDateFormat dayFormatGmt = new SimpleDateFormat("yyyy-MM-dd");
+		dayFormatGmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+		final File unwritable = new File(archive, "spots-" + dayFormatGmt.format(records[4].getTimeAsTimestamp()) + ".csv.gz");
+		unwritable.mkdir();
+
+		try {
+			retentionJob.prune();
+			fail("Archiving should have failed");
+		} catch (final RuntimeException e) {
+			assertThat(e.getMessage(), containsString(unwritable.getName()));
+		}
+
+		assertThat(archive.listFiles().length, equalTo(1));
+		assertThat(persister.getTweetedRecordsBefore(new Timestamp(System.currentTimeMillis()), 100), hasSize(10));
+	}
+
+	private void persistTweeted(final ClusterRecord[] records) {
+		persister.persistRecords(records);
+		persister.markTweeted(Arrays.asList(records));
+	}
+
+	// count records, nrs from firstNr, spread evenly from days ago to now
+	private ClusterRecord[] recordsDaysAgo(final int firstNr, final int count, final int days) {
+		final long now = System.currentTimeMillis();
+		final ClusterRecord[] records = new ClusterRecord[count];
+		for (int i = 0; i < count; i++) {
+			final long when = now - (days * DAY_MILLIS) + (days * DAY_MILLIS * i / count) + 60000L;
+			records[i] = ClusterRecord.dbRecord(firstNr + i, "GB4IMD", "M0CUV", new Timestamp(when), "14060", "Spot, \"" + i + "\"");
+		}
+		return records;
+	}
+
+	private List<String> readGzip(final File file) throws IOException {
+		final List<String> lines = new ArrayList<>();
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), Charset.forName("UTF-8")))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,146 @@
+package org.devzendo.dxclusterwatch.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.devzendo.dxclusterwatch.cmd.ClusterRecord;
+import org.devzendo.dxclusterwatch.cmd.Spot;
+import org.junit.Test;
+
+public class TestSpotRingBuffer {
+	private final ClusterRecord record1 = ClusterRecord.dbRecord(1, "GB4IMD", "M0CUV", when(20), "14060", "Hi Matt");
+	private final ClusterRecord record2 = ClusterRecord.dbRecord(2, "GB3IMD", "M0CUV", when(25), "7035", "UP 20");
+	private final ClusterRecord record3 = ClusterRecord.dbRecord(3, "GB2IMD", "G4ABC", when(30), "3560", "<tnx>");
+
+	private final SpotRingBuffer ring = new SpotRingBuffer(2);
+	private final List<String> visited = new ArrayList<>();
+	private final SpotRingBuffer.Visitor visitor = new SpotRingBuffer.Visitor() {
+		@Override
+		public void visit(final SpotRingBuffer.Entry entry) {
+			visited.add(entry.getNr() + ":" + entry.getSequence());
+		}
+	};
+
+	@Test
+	public void emptyRingVisitsNothing() {
+		assertThat(ring.read(0, visitor), equalTo(0L));
+		assertThat(visited, hasSize(0));
+		assertThat(ring.size(), equalTo(0));
+	}
+
+	@Test
+	public void recordsAreReadBackAsStored() {
+		ring.addAll(Arrays.asList(record1));
+
+		final ClusterRecord read = ring.getRecords().get(0);
+		assertThat(read.getNr(), equalTo("1"));
+		assertThat(read.getDxcall(), equalTo("GB4IMD"));
+		assertThat(read.getCall(), equalTo("M0CUV"));
+		assertThat(read.getTimeAsTimestamp(), equalTo(when(20)));
+		assertThat(read.getTime(), equalTo(record1.getTime()));
+		assertThat(read.getFreq(), equalTo("14060"));
+		assertThat(read.getComment(), equalTo("Hi Matt"));
+	}
+
+	@Test
+	public void recordsAreListedNewestFirst() {
+		ring.addAll(Arrays.asList(record1, record2));
+
+		final List<ClusterRecord> records = ring.getRecords();
+		assertThat(records, hasSize(2));
+		assertThat(records.get(0).getNr(), equalTo("2"));
+		assertThat(records.get(1).getNr(), equalTo("1"));
+	}
+
+	@Test
+	public void oldestRecordIsOverwrittenWhenFull() {
+		ring.addAll(Arrays.asList(record1, record2));
+		ring.addAll(Arrays.asList(record3));
+
+		assertThat(ring.size(), equalTo(2));
+		assertThat(ring.getSequence(), equalTo(3L));
+		assertThat(ring.read(0, visitor), equalTo(3L));
+		assertThat(visited, equalTo(Arrays.asList("2:1", "3:2")));
+	}
+
+	@Test
+	public void onlyRecordsAddedSinceAreVisited() {
+		ring.addAll(Arrays.asList(record1));
+		final long next = ring.read(0, visitor);
+		ring.addAll(Arrays.asList(record2));
+
+		assertThat(ring.read(next, visitor), equalTo(2L));
+		assertThat(visited, equalTo(Arrays.asList("1:0", "2:1")));
+		assertThat(ring.read(2, visitor), equalTo(2L));
+		assertThat(visited, hasSize(2));
+	}
+
+	@Test
+	public void spotsAddedOutOfTimeOrderAreVisitedNewestFirst() {
+		final SpotRingBuffer bigger = new SpotRingBuffer(5);
+		final ClusterRecord untimed = new ClusterRecord();
+		untimed.setNr("4");
+		final ClusterRecord sameTimeAsRecord2 = ClusterRecord.dbRecord(5, "GB5IMD", "G4ABC", when(25), "10118", "");
+		bigger.addAll(Arrays.asList(record3, untimed, record1, record2, sameTimeAsRecord2));
+
+		assertThat(bigger.readNewestFirst(5, visitor), equalTo(5));
+		assertThat(visited, equalTo(Arrays.asList("3:0", "5:4", "2:3", "1:2", "4:1")));
+	}
+
+	@Test
+	public void onlyTheNewestUpToTheLimitAreVisited() {
+		ring.addAll(Arrays.asList(record2, record1));
+
+		assertThat(ring.readNewestFirst(1, visitor), equalTo(1));
+		assertThat(visited, equalTo(Arrays.asList("2:0")));
+		assertThat(ring.readNewestFirst(0, visitor), equalTo(0));
+		assertThat(visited, hasSize(1));
+	}
+
+	@Test
+	public void missingTimeAndFieldsAreReadBackEmpty() {
+		final ClusterRecord untimed = new ClusterRecord();
+		untimed.setNr("4");
+		untimed.setDxcall("GB4IMD");
+		ring.addAll(Arrays.asList(untimed));
+
+		final ClusterRecord read = ring.getRecords().get(0);
+		assertThat(read.getTimeAsTimestamp(), nullValue());
+		assertThat(read.getTime(), equalTo(""));
+		assertThat(read.getCall(), equalTo(""));
+		assertThat(read.getComment(), equalTo(""));
+		ring.read(0, new SpotRingBuffer.Visitor() {
+			@Override
+			public void visit(final SpotRingBuffer.Entry entry) {
+				assertThat(entry.getTimeMillis(), equalTo(Spot.NO_TIME));
+			}
+		});
+	}
+
+	@Test
+	public void longFieldsAreTruncatedToTheirColumnWidths() {
+		final String comment = StringUtils.repeat('x', 200);
+		ring.addAll(Arrays.asList(ClusterRecord.dbRecord(5, StringUtils.repeat('G', 30), "M0CUV", when(35), "14060", comment)));
+
+		final ClusterRecord read = ring.getRecords().get(0);
+		assertThat(read.getDxcall(), equalTo(StringUtils.repeat('G', 25)));
+		assertThat(read.getComment(), equalTo(comment.substring(0, 128)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive() {
+		new SpotRingBuffer(0);
+	}
+
+	private static Timestamp when(final long secondsFromEpoch) {
+		return new Timestamp(secondsFromEpoch * 1000);
+	}
+}
@@ -1,11 +1,14 @@
 package org.devzendo.dxclusterwatch.test;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
+import java.util.zip.GZIPOutputStream;
 
+import org.devzendo.commoncode.concurrency.ThreadUtils;
 import org.devzendo.commoncode.resource.ResourceLoader;
 import org.simpleframework.http.Request;
 import org.simpleframework.http.Response;
@@ -17,10 +20,24 @@ import org.slf4j.LoggerFactory;
 
 public class FakeDXCluster implements Container {
 
+	/**
+	 * Supplies the feed to serve, instead of the canned page.
+	 */
+	public interface Feed {
+		String read() throws IOException;
+	}
+
 	private static Logger LOGGER = LoggerFactory.getLogger(FakeDXCluster.class);
 
 	private final int port;
 	private Connection connection;	
+	// The feed's validators; changed by touch() to simulate new spots arriving.
+	private volatile long lastModified = System.currentTimeMillis() / 1000 * 1000;
+	private volatile int version = 1;
+	private volatile int fullResponses = 0;
+	private volatile int gzipResponses = 0;
+	private volatile long responseDelayMillis = 0;
+	private volatile Feed feed = null;
 
 	public static FakeDXCluster createServer(final int port) throws IOException {
 		final FakeDXCluster container = new FakeDXCluster(port);
@@ -43,28 +60,95 @@ public class FakeDXCluster implements Container {
 	@Override
 	public void handle(final Request request, final Response response) {
 		try {
+			if (responseDelayMillis > 0) {
+				ThreadUtils.waitNoInterruption(responseDelayMillis);
+			}
 			final long time = System.currentTimeMillis();
+			final String eTag = "\"" + version + "\"";
 
 			response.set("Content-Type", "text/html"); // it's application/json really, but simulate the response the real DXCluster sends.
 			response.set("Server", "FakeDXCluster/1.0 (Simple 4.0)");
 			response.setDate("Date", time);
-			response.setDate("Last-Modified", time);
+			response.setDate("Last-Modified", lastModified);
+			response.set("ETag", eTag);
+
+			if (eTag.equals(request.getValue("If-None-Match")) ||
+					(request.getValue("If-None-Match") == null && request.getDate("If-Modified-Since") >= lastModified)) {
+				LOGGER.debug("Not modified");
+				response.setCode(304);
+				response.close();
+				return;
+			}
 
-			final PrintStream body = response.getPrintStream();
 			final String target = request.getTarget();
-			final String output = ResourceLoader.readResource("original_dxcluster.html");
+			final Feed currentFeed = feed;
+			final String output = currentFeed != null ? currentFeed.read() : ResourceLoader.readResource("original_dxcluster.html");
 			LOGGER.debug("Target: " + target + " output: '" + output + "'");
 			if (output == null) {
 				response.setCode(404);
+				response.close();
+				return;
+			}
+			fullResponses++;
+			final String acceptEncoding = request.getValue("Accept-Encoding");
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				gzipResponses++;
+				response.set("Content-Encoding", "gzip");
+				final OutputStream body = new GZIPOutputStream(response.getOutputStream());
+				body.write(output.getBytes("UTF-8"));
+				body.close();
 			} else {
+				final PrintStream body = response.getPrintStream();
 				body.print(output);
+				body.close();
 			}
-			body.close();
 		} catch (final IOException e) {
 			LOGGER.warn("FakeDXCluster caught IOException: " + e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * Simulate a slow server.
+	 * @param responseDelayMillis how long to stall before responding
+	 */
+	public void setResponseDelayMillis(final long responseDelayMillis) {
+		this.responseDelayMillis = responseDelayMillis;
+	}
+
+	/**
+	 * Serve spots from elsewhere; touch() when they change.
+	 * @param feed the feed to serve, or null to serve the canned page
+	 */
+	public void setFeed(final Feed feed) {
+		this.feed = feed;
+	}
+
+	/**
+	 * Change the feed's ETag, and its Last-Modified to now, as if new spots had
+	 * arrived.
+	 */
+	public synchronized void touch() {
+		version++;
+		// HTTP dates are in whole seconds, so touches within the same second
+		// share a Last-Modified; only the ETag tells them apart. Never goes
+		// back, should the clock.
+		lastModified = Math.max(lastModified, System.currentTimeMillis() / 1000 * 1000);
+	}
+
+	/**
+	 * @return the number of responses that carried the feed, rather than 304 Not Modified.
+	 */
+	public int getFullResponses() {
+		return fullResponses;
+	}
+
+	/**
+	 * @return the number of those responses that were gzip encoded.
+	 */
+	public int getGzipResponses() {
+		return gzipResponses;
+	}
+
 	/**
 	 * Stop the server, close listening sockets, etc.
 	 */
@@ -0,0 +1,140 @@
+package org.devzendo.dxclusterwatch.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.devzendo.dxclusterwatch.test.LoggingUnittest;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TestStage {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private Stage stage;
+
+	@BeforeClass
+	public static void setupLogging() {
+		LoggingUnittest.initialise();
+	}
+
+	@After
+	public void shutdownStage() {
+		if (stage != null) {
+			stage.shutdown();
+		}
+	}
+
+	@Test
+	public void tasksRunInOrderAndAreCounted() {
+		stage = new Stage("test", 10);
+		final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			stage.submit(new Runnable() {
+				@Override
+				public void run() {
+					ran.add(n);
+				}
+			});
+		}
+		stage.shutdown();
+
+		assertThat(ran, contains(0, 1, 2, 3, 4));
+		assertThat(stage.getSubmitted(), equalTo(5L));
+		assertThat(stage.getCompleted(), equalTo(5L));
+		assertThat(stage.getBlocked(), equalTo(0L));
+	}
+
+	@Test
+	public void failingTaskDoesNotStopTheStage() {
+		stage = new Stage("test", 10);
+		final CountDownLatch ran = new CountDownLatch(1);
+		stage.submit(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("boom");
+			}
+		});
+		stage.submit(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		});
+		stage.shutdown();
+
+		assertThat(ran.getCount(), equalTo(0L));
+		assertThat(stage.getFailed(), equalTo(1L));
+		assertThat(stage.getCompleted(), equalTo(2L));
+	}
+
+	@Test
+	public void fullStageBlocksSubmitterAndRecordsIt() throws InterruptedException {
+		stage = new Stage("test", 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch running = new CountDownLatch(1);
+		stage.submit(new Runnable() {
+			@Override
+			public void run() {
+				running.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		running.await();
+		stage.submit(new NoOp()); // fills the queue
+		assertThat(stage.getQueueDepth(), equalTo(1));
+
+		final Thread releaser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(250);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				release.countDown();
+			}
+		});
+		releaser.start();
+		stage.submit(new NoOp()); // blocks until the first task is released
+		releaser.join();
+		stage.shutdown();
+
+		assertThat(stage.getBlocked(), equalTo(1L));
+		assertThat(stage.getBlockedMillis(), greaterThan(100L));
+		assertThat(stage.getMaxQueueDepth(), greaterThanOrEqualTo(1L));
+		assertThat(stage.getCompleted(), equalTo(3L));
+	}
+
+	@Test
+	public void cannotSubmitOnceShutDown() {
+		stage = new Stage("test", 1);
+		stage.shutdown();
+
+		thrown.expect(RejectedExecutionException.class);
+		stage.submit(new NoOp());
+	}
+
+	private static class NoOp implements Runnable {
+		@Override
+		public void run() {
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.devzendo.dxclusterwatch.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestSymbolTable {
+	private final SymbolTable table = new SymbolTable(64);
+
+	@Test
+	public void equalStringsAreTheSameInstance() {
+		final String first = table.intern(new String("GB4IMD"));
+		final String second = table.intern(new String("GB4IMD"));
+
+		assertThat(second, sameInstance(first));
+		assertThat(table.getHits(), equalTo(1L));
+		assertThat(table.getMisses(), equalTo(1L));
+	}
+
+	@Test
+	public void charsAreInternedWithoutACopyWhenKnown() {
+		final String known = table.intern(new String("GB4IMD"));
+		final char[] buffer = "xxGB4IMDyy".toCharArray();
+
+		assertThat(table.intern(buffer, 2, 6), sameInstance(known));
+	}
+
+	@Test
+	public void charsAreInternedAsANewStringWhenUnknown() {
+		final char[] buffer = "xxGB4IMDyy".toCharArray();
+
+		final String interned = table.intern(buffer, 2, 6);
+		assertThat(interned, equalTo("GB4IMD"));
+		assertThat(table.intern(new String("GB4IMD")), sameInstance(interned));
+	}
+
+	@Test
+	public void nullIsNotInterned() {
+		assertThat(table.intern(null), nullValue());
+	}
+
+	@Test
+	public void capacityIsRoundedUpToAPowerOfTwo() {
+		assertThat(new SymbolTable(1).getCapacity(), equalTo(1));
+		assertThat(new SymbolTable(100).getCapacity(), equalTo(128));
+		assertThat(new SymbolTable(128).getCapacity(), equalTo(128));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive() {
+		new SymbolTable(0);
+	}
+
+	@Test
+	public void tableIsBounded() {
+		final SymbolTable single = new SymbolTable(1);
+		final String first = single.intern(new String("GB4IMD"));
+		single.intern(new String("M0CUV"));
+
+		// the first has been replaced, so is no longer shared
+		final String again = single.intern(new String("GB4IMD"));
+		assertThat(again, equalTo(first));
+		assertThat(again, not(sameInstance(first)));
+	}
+
+	@Test
+	public void threadsShareTheTable() throws Exception {
+		final int threads = 4;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> workers = new ArrayList<>();
+		final List<AssertionError> failures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 10000; i++) {
+							final String callsign = "GB" + (i % 10) + "IMD";
+							if (!table.intern(callsign).equals(callsign)) {
+								throw new AssertionError("Interned a different string for " + callsign);
+							}
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (final AssertionError e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+		assertThat(failures.isEmpty(), equalTo(true));
+		assertThat(table.getHits() + table.getMisses(), equalTo(threads * 10000L));
+	}
+}